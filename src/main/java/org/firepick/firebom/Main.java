@@ -19,6 +19,8 @@ package org.firepick.firebom;
 import org.firepick.firebom.bom.BOM;
 import org.firepick.firebom.bom.BOMFactory;
 import org.firepick.firebom.part.CachedUrlResolver;
+import org.firepick.firebom.part.HttpArchive;
+import org.firepick.firebom.part.UrlContentStore;
 
 import java.io.*;
 import java.net.MalformedURLException;
@@ -62,6 +64,32 @@ public class Main {
 	  ok = getUrl(args[++i]) || ok;
 	} else if ("-nocache".equalsIgnoreCase(arg)) {
 	    CachedUrlResolver.setIsCached(false);
+	} else if ("-pagestore".equalsIgnoreCase(arg)) {
+	  if (i+1 >= args.length) {
+	    throw new RuntimeException("Expected directory after \"-pagestore\"");
+	  }
+	  CachedUrlResolver.setPageStore(new UrlContentStore(new File(args[++i])));
+	} else if ("-snapshot".equalsIgnoreCase(arg)) {
+	  if (i+1 >= args.length) {
+	    throw new RuntimeException("Expected file after \"-snapshot\"");
+	  }
+	  bomFactory.setSnapshotFile(new File(args[++i]));
+	} else if ("-record".equalsIgnoreCase(arg)) {
+	  if (i+1 >= args.length) {
+	    throw new RuntimeException("Expected directory after \"-record\"");
+	  }
+	  CachedUrlResolver.setArchive(new HttpArchive(new File(args[++i]), HttpArchive.Mode.RECORD));
+	} else if ("-replay".equalsIgnoreCase(arg)) {
+	  if (i+1 >= args.length) {
+	    throw new RuntimeException("Expected directory after \"-replay\"");
+	  }
+	  CachedUrlResolver.setArchive(new HttpArchive(new File(args[++i]), HttpArchive.Mode.REPLAY));
+	} else if ("-replaylatency".equalsIgnoreCase(arg)) {
+	  HttpArchive archive = CachedUrlResolver.getArchive();
+	  if (archive == null || !archive.isReplay()) {
+	    throw new RuntimeException("Expected \"-replay dir\" before \"-replaylatency\"");
+	  }
+	  archive.setReplayLatency(true);
 	} else if ("-markdown".equalsIgnoreCase(arg)) {
 	    bomFactory.setOutputType(BOMFactory.OutputType.MARKDOWN);
 	} else if ("-csv".equalsIgnoreCase(arg)) {
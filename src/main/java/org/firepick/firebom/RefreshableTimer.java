@@ -21,15 +21,16 @@ import java.io.Serializable;
 /**
  * An exponentially averaged timer for implementing refreshable proxies.
  * Timer adapts the expected refresh interval based on past refresh() and sample() calls.
+ * Updates are synchronized; reads do not lock.
  */
 public class RefreshableTimer implements IRefreshableProxy, Serializable {
-    private long minRefreshInterval;
-    private long lastRefreshMillis;
-    private long lastSampleMillis;
+    private volatile long minRefreshInterval;
+    private volatile long lastRefreshMillis;
+    private volatile long lastSampleMillis;
     private double sensitivity;
-    private boolean isResolved;
-    private long samplesSinceRefresh;
-    private long sampleInterval;
+    private volatile boolean isResolved;
+    private volatile long samplesSinceRefresh;
+    private volatile long sampleInterval;
 
     public RefreshableTimer() {
         this(0.8d);
@@ -44,13 +45,13 @@ public class RefreshableTimer implements IRefreshableProxy, Serializable {
         this.lastSampleMillis = lastRefreshMillis;
     }
 
-    public void refresh() {
+    public synchronized void refresh() {
         lastRefreshMillis = System.currentTimeMillis();
         samplesSinceRefresh = 0;
         isResolved = true;
     }
 
-    public void sample() {
+    public synchronized void sample() {
         samplesSinceRefresh++;
         long nowMillis = System.currentTimeMillis();
         long msElapsed = nowMillis - lastSampleMillis;
@@ -89,11 +90,39 @@ public class RefreshableTimer implements IRefreshableProxy, Serializable {
         return System.currentTimeMillis() - lastRefreshMillis;
     }
 
+    /**
+     * @return time at which the proxy becomes stale, which is in the past for overdue proxies
+     */
+    public long getDueMillis() {
+        return lastRefreshMillis + getRefreshInterval();
+    }
+
     public long getRefreshInterval() {
         Long value  = getSampleInterval();
         return Math.max(getMinRefreshInterval(), value);
     }
 
+    public long getLastRefreshMillis() {
+        return lastRefreshMillis;
+    }
+
+    /**
+     * Restore the state of a timer saved with its getters.
+     */
+    public synchronized RefreshableTimer restore(boolean isResolved, long lastRefreshMillis, long lastSampleMillis,
+                                    long sampleInterval, long samplesSinceRefresh) {
+        this.isResolved = isResolved;
+        this.lastRefreshMillis = lastRefreshMillis;
+        this.lastSampleMillis = lastSampleMillis;
+        this.sampleInterval = sampleInterval;
+        this.samplesSinceRefresh = samplesSinceRefresh;
+        return this;
+    }
+
+    public long getLastSampleMillis() {
+        return lastSampleMillis;
+    }
+
     public long getSampleInterval() {
         return sampleInterval;
     }
@@ -43,8 +43,13 @@ public class BOM implements IRelation, IRefreshableProxy {
     private String title;
     private RefreshableTimer refreshableTimer = new RefreshableTimer();
     private Part rootPart;
+    private PartFactory partFactory;
 
     public BOM(URL url) {
+        this(url, PartFactory.getInstance());
+    }
+
+    public BOM(URL url, PartFactory partFactory) {
         this.url = url;
         this.title = UNRESOLVED;
         columnDescriptions = new ArrayList<IColumnDescription>();
@@ -53,7 +58,9 @@ public class BOM implements IRelation, IRefreshableProxy {
             columnDescriptions.add(bomColumnDescription);
             columnMap.put(column, bomColumnDescription);
         }
-        this.rootPart = PartFactory.getInstance().createPart(url);
+        this.partFactory = partFactory;
+        this.rootPart = partFactory.createPart(url);
+        partFactory.getEvictionPolicy().touchRoot(rootPart);
         addPart(rootPart, 1);
     }
 
@@ -194,6 +201,9 @@ public class BOM implements IRelation, IRefreshableProxy {
     public boolean resolve(long timeoutMillis) {
         long msStart = System.currentTimeMillis();
         while (!isResolved()) {
+            for (IPartComparable partComparable : rows) {
+                ((BOMRow) partComparable).prefetch();
+            }
             ArrayList<BOMRow> simpleAssemblies = new ArrayList<BOMRow>();
             for (IPartComparable partComparable : rows) {
                 BOMRow bomRow = (BOMRow) partComparable;
@@ -240,6 +250,7 @@ public class BOM implements IRelation, IRefreshableProxy {
     @Override
     public void sample() {
         refreshableTimer.sample();
+        partFactory.getEvictionPolicy().touchRoot(rootPart);
     }
 
     public Part getRootPart() {
@@ -17,12 +17,19 @@ package org.firepick.firebom.bom;
  */
 
 import net.sf.ehcache.CacheManager;
+import org.firepick.firebom.part.CachedUrlResolver;
 import org.firepick.firebom.part.PartFactory;
 import org.firepick.relation.IRowVisitor;
 import org.firepick.relation.RelationPrinter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.URL;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -37,14 +44,93 @@ public class BOMFactory implements Runnable {
     private PartFactory partFactory;
     private boolean workerPaused;
     private Lock backgroundLock = new ReentrantLock();
+    private File snapshotFile;
 
+    /**
+     * Stop refreshing parts before the snapshot is saved, so that it captures settled parts.
+     */
     public void shutdown() {
-        logger.info("Shutting down Ehcache");
-        CacheManager.getInstance().shutdown();
+        getPartFactory().shutdown();
+        try {
+            if (snapshotFile != null) {
+                saveSnapshot();
+            }
+        }
+        finally {
+            logger.info("Shutting down Ehcache");
+            CacheManager.getInstance().shutdown();
+            CachedUrlResolver.setPageStore(null);
+        }
+    }
+
+    /**
+     * Load the part graph snapshot file if it exists and save it again on shutdown.
+     * A snapshot left only in the temporary file by an interrupted save is recovered.
+     */
+    public BOMFactory setSnapshotFile(File snapshotFile) throws IOException {
+        this.snapshotFile = snapshotFile;
+        if (snapshotFile != null) {
+            File tmpFile = getTmpSnapshotFile();
+            if (snapshotFile.exists()) {
+                importSnapshot(snapshotFile);
+            } else if (tmpFile.exists()) {
+                logger.warn("Recovering part graph snapshot {} from {}", snapshotFile, tmpFile);
+                try {
+                    importSnapshot(tmpFile);
+                }
+                catch (IOException e) {
+                    // the first save may have been interrupted while writing the temporary file
+                    logger.warn("Could not recover part graph snapshot {}", tmpFile, e);
+                }
+            }
+        }
+        return this;
+    }
+
+    private void importSnapshot(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            getPartFactory().importParts(is);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    private File getTmpSnapshotFile() {
+        return new File(snapshotFile.getPath() + ".tmp");
+    }
+
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Write the snapshot to a temporary file and rename it over the snapshot file.
+     * Platforms that cannot rename over an existing file get the snapshot deleted first,
+     * so a crash before the rename leaves the complete snapshot in the temporary file.
+     */
+    private void saveSnapshot() {
+        File tmpFile = getTmpSnapshotFile();
+        try {
+            OutputStream os = new FileOutputStream(tmpFile);
+            try {
+                getPartFactory().exportParts(os);
+            }
+            finally {
+                os.close();
+            }
+            if (!tmpFile.renameTo(snapshotFile) && !(snapshotFile.delete() && tmpFile.renameTo(snapshotFile))) {
+                throw new IOException("Could not rename " + tmpFile + " to " + snapshotFile);
+            }
+        }
+        catch (IOException e) {
+            logger.error("Could not save part graph snapshot {}", snapshotFile, e);
+        }
     }
 
     public BOM createBOM(URL url) {
-        BOM bom = new BOM(url);
+        BOM bom = new BOM(url, getPartFactory());
         synchronized (bomQueue) {
             bomQueue.add(bom);
             if (worker == null) {
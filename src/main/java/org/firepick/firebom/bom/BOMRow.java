@@ -60,6 +60,22 @@ public class BOMRow extends PartUsage implements IRow, IPartComparable {
         return isResolved;
     }
 
+    /**
+     * Start fetching unresolved parts of this row without waiting for them.
+     */
+    public void prefetch() {
+        if (!isResolved) {
+            Part part = getPart();
+            if (!part.isResolved()) {
+                part.prefetch();
+            }
+            Part sourcePart = part.getSourcePart();
+            if (sourcePart != null && !sourcePart.isResolved()) {
+                sourcePart.prefetch();
+            }
+        }
+    }
+
     private void refreshPart(Part part) {
         try {
             part.refresh();
@@ -36,7 +36,7 @@ public class AmazonPart extends HtmlPart {
 
   @Override
   protected void refreshFromRemoteContent(String content) throws IOException {
-    String title = PartFactory.getInstance().scrapeText(content, startTitle, endTitle);
+    String title = PartFactory.scrapeText(content, startTitle, endTitle);
     if (title != null) {
       title = title.replaceAll("&amp;", "&");
       String [] phrases = title.split(":");
@@ -50,11 +50,11 @@ public class AmazonPart extends HtmlPart {
         }
       }
     }
-    String price = PartFactory.getInstance().scrapeText(content, startPrice, endPrice);
+    String price = PartFactory.scrapeText(content, startPrice, endPrice);
     if (price != null) {
       setPackageCost(Double.parseDouble(price));
     }
-    String unitCostStr = PartFactory.getInstance().scrapeText(content, startUnitCost, endUnitCost);
+    String unitCostStr = PartFactory.scrapeText(content, startUnitCost, endUnitCost);
     if (unitCostStr != null) {
       try {
 //                double unitCost = Double.parseDouble(unitCostStr);
@@ -15,40 +15,116 @@ package org.firepick.firebom.part;
    limitations under the License.
  */
 
+import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
 import org.firepick.firebom.exception.ProxyResolutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.net.ssl.*;
 import javax.xml.bind.DatatypeConverter;
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.cert.X509Certificate;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import static java.util.Locale.US;
 
+/**
+ * Fetches and caches the contents of part urls.
+ * Resolvers of the same scope share fetched contents, cached failures and page store records.
+ * Each part factory resolves urls in its own scope, so responses fetched with one tenant's
+ * vendor cookies or credentials are never served to another tenant.
+ * Shared by all resolvers are only the host schedulers, which enforce each vendor's politeness ceiling,
+ * the page store and http archive files, with records kept apart by scope in the page store,
+ * and the aggregate ResolverMetrics.
+ */
 public class CachedUrlResolver {
+    public static final String URL_CONTENTS_CACHE = "URL-contents";
+    public static int DEFAULT_FETCH_THREADS = 32;
+    public static long DEFAULT_FRESH_MILLIS = 15000;
+    public static long DEFAULT_FAILURE_RETRY_MILLIS = 5000;
+    public static long DEFAULT_MAX_FAILURE_RETRY_MILLIS = 3600000;
+    public static int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static int DEFAULT_READ_TIMEOUT = 30000;
+    private static final int SCRAPE_INTERVAL = 4096;
+    private static final String PARTIAL_FETCH_PREFIX = "partial:";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
     private static Logger logger = LoggerFactory.getLogger(CachedUrlResolver.class);
     private String accept;
     private String language;
     private String userAgent;
     private String cookies;
     private String basicAuth;
-    private long urlRequests;
-    private long networkRequests;
+    private int fetchThreads = DEFAULT_FETCH_THREADS;
+    private long freshMillis = DEFAULT_FRESH_MILLIS;
+    private long failureRetryMillis = DEFAULT_FAILURE_RETRY_MILLIS;
+    private long maxFailureRetryMillis = DEFAULT_MAX_FAILURE_RETRY_MILLIS;
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private ExecutorService fetchExecutor;
+    private final String contentCacheName;
+    private final String storeKeyPrefix;
+    private final AtomicLong urlRequests = new AtomicLong();
+    private final AtomicLong networkRequests = new AtomicLong();
+    private final ConcurrentHashMap<String, String> hostCookies = new ConcurrentHashMap<String, String>();
+    private final ConcurrentHashMap<String, HostScheduler> tenantSchedulers =
+            new ConcurrentHashMap<String, HostScheduler>();
+    // per resolver, since resolvers with their own cookies or credentials must not share fetches
+    private final ConcurrentHashMap<String, InFlightFetch> inFlightFetches =
+            new ConcurrentHashMap<String, InFlightFetch>();
+    private final ConcurrentHashMap<String, HostCircuitBreaker> circuitBreakers =
+            new ConcurrentHashMap<String, HostCircuitBreaker>();
+    private final ConcurrentHashMap<PartKey, UrlFailure> revalidationFailures =
+            new ConcurrentHashMap<PartKey, UrlFailure>();
+    private final ConcurrentHashMap<PartKey, Future<UrlContent>> storedRevalidations =
+            new ConcurrentHashMap<PartKey, Future<UrlContent>>();
     private static boolean isCached = true;
+    private static UrlContentStore pageStore;
+    private static HttpArchive archive;
+    private static ConcurrentHashMap<String, HostScheduler> hostSchedulers =
+            new ConcurrentHashMap<String, HostScheduler>();
+    private static ResolverMetrics metrics = new ResolverMetrics();
+    private static ScheduledExecutorService timerExecutor = Executors.newSingleThreadScheduledExecutor(
+            new FetchThreadFactory("CachedUrlResolver-timer-"));
 
     static {
         trustAll();
+        registerMetrics();
+        String pageStoreDir = System.getProperty("firebom.pagestore");
+        if (pageStoreDir != null) {
+            try {
+                setPageStore(new UrlContentStore(new File(pageStoreDir)));
+            }
+            catch (IOException e) {
+                logger.error("Could not open page store {}", pageStoreDir, e);
+            }
+        }
     }
 
     public CachedUrlResolver() {
@@ -56,6 +132,15 @@ public class CachedUrlResolver {
     }
 
     public CachedUrlResolver(Locale locale) {
+        this(locale, null);
+    }
+
+    /**
+     * @param scope name of the contents shared with other resolvers of the same scope, or null for the default scope
+     */
+    public CachedUrlResolver(Locale locale, String scope) {
+        contentCacheName = scope == null ? URL_CONTENTS_CACHE : URL_CONTENTS_CACHE + "." + scope;
+        storeKeyPrefix = scope == null ? "" : scope + " "; // urls contain no spaces
         if (locale == US) {
 	    accept = "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8";
             language = "en-US,en;q=0.8";
@@ -72,6 +157,57 @@ public class CachedUrlResolver {
       return isCached;
     }
 
+    /**
+     * Persist fetched url contents in the given store so that they survive restarts.
+     * Contents found in the store are served at once, so a warm restart does not wait on the network.
+     * Stale stored contents are revalidated in the background and served until their revalidation completes.
+     *
+     * @param store page store or null to disable persistence
+     */
+    public static synchronized void setPageStore(UrlContentStore store) {
+        logger.info("setPageStore({})", store == null ? null : store.getDirectory());
+        if (pageStore != null && pageStore != store) {
+            pageStore.close();
+        }
+        pageStore = store;
+    }
+
+    public static UrlContentStore getPageStore() {
+        return pageStore;
+    }
+
+    /**
+     * Record all responses to the given archive or, in replay mode, serve all responses from it
+     * without any network access.
+     *
+     * @param httpArchive archive or null for normal network access
+     */
+    public static void setArchive(HttpArchive httpArchive) {
+        logger.info("setArchive({})", httpArchive);
+        archive = httpArchive;
+    }
+
+    public static HttpArchive getArchive() {
+        return archive;
+    }
+
+    private static void registerMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+                    new ObjectName("org.firepick.firebom:type=CachedUrlResolver"));
+        }
+        catch (JMException e) {
+            logger.warn("Could not register resolver metrics", e);
+        }
+    }
+
+    /**
+     * @return url resolution metrics shared by all resolvers, also exported via JMX
+     */
+    public static ResolverMetrics getMetrics() {
+        return metrics;
+    }
+
     private static void trustAll() {
         TrustManager[] trustAllCerts = new TrustManager[]{new X509TrustManager() {
             public java.security.cert.X509Certificate[] getAcceptedIssuers() {
@@ -102,73 +238,703 @@ public class CachedUrlResolver {
     }
 
     public String get(URL url) throws IOException {
-        urlRequests++;
-        Element cacheElement = getCache("URL-contents").get(url);
-        if (!isCached || cacheElement == null) {
-            StringBuilder response;
-            InputStreamReader isr;
-            HttpURLConnection connection;
-            try {
-                networkRequests++;
-                boolean followRedirect;
-                int nFollows = 0;
-                do {
-                    connection = createHttpURLConnection(url);
-                    isr = new InputStreamReader(connection.getInputStream());
-                    int responseCode = connection.getResponseCode();
-		    if (!isCached) {
-		      logger.info("get({}) => {}", url, responseCode);
-		    }
-                    switch (responseCode) {
-                        case HttpURLConnection.HTTP_MOVED_PERM:
-                        case HttpURLConnection.HTTP_MOVED_TEMP: {
-                            String location = connection.getHeaderField("Location");
-                            url = new URL(location);
-                            followRedirect = true;
-                            break;
-                        }
-                        default:
-                            followRedirect = false;
-                            break;
+        return getContent(url).getContent();
+    }
+
+    /**
+     * Return the contents of the given url along with its response validators.
+     * Cached contents are returned as is while fresh. Stale contents are revalidated
+     * with a conditional request and reused if the server responds with 304 Not Modified.
+     */
+    public UrlContent getContent(URL url) throws IOException {
+        return getContent(url, null);
+    }
+
+    /**
+     * Return the contents of the given url, reading only as much of the page as the
+     * given scraper needs. Once the scraper has found all its required fields, the
+     * connection is closed and the page prefix read so far is returned as partial content.
+     * Partial contents are only reused by other streaming reads. A page that is cached in
+     * its entirety is always read in its entirety, so it is never replaced by a partial page.
+     *
+     * @param scraper required fields or null to read the entire page
+     */
+    public UrlContent getContent(URL url, ContentScraper scraper) throws IOException {
+        return getContent(url, PartKey.of(url), scraper, false);
+    }
+
+    /**
+     * @param key        interned key of the url, looked up once per request
+     * @param isAdmitted true if the caller is the single-flight owner of the fetch and holds
+     *                   admissions from both the tenant and the shared host scheduler
+     */
+    private UrlContent getContent(URL url, PartKey key, ContentScraper scraper, boolean isAdmitted)
+            throws IOException {
+        recordUrlRequest();
+        Element cacheElement = getContentCache().get(key);
+        if (isCached && cacheElement == null) {
+            cacheElement = loadFromPageStore(url, key);
+        }
+        if (cacheElement == null) {
+            revalidationFailures.remove(key); // stale content was evicted
+        }
+        UrlContent cachedContent = null;
+        UrlFailure cachedFailure = null;
+        if (isCached && cacheElement != null) {
+            if (cacheElement.getObjectValue() instanceof UrlFailure) {
+                cachedFailure = (UrlFailure) cacheElement.getObjectValue();
+                if (!cachedFailure.isRetryDue()) {
+                    metrics.recordNegativeHit();
+                    logger.info("throwing cached exception for {}", url);
+                    throw new ProxyResolutionException(url.toString(), cachedFailure.getException());
+                }
+            } else {
+                cachedContent = (UrlContent) cacheElement.getObjectValue();
+                if (cachedContent.isPartial() && scraper == null) {
+                    cachedContent = null; // entire page is needed
+                } else if (cachedContent.getAge() < freshMillis) {
+                    metrics.recordCacheHit();
+                    logger.info("urlTextContent => (cached) {}", url);
+                    return cachedContent;
+                } else if (!isAdmitted && isRevalidatingStoredContent(key)) {
+                    metrics.recordCacheHit();
+                    logger.info("urlTextContent => (stored, revalidating) {}", url);
+                    return cachedContent;
+                } else {
+                    cachedFailure = revalidationFailures.get(key);
+                    if (cachedFailure != null && !cachedFailure.isRetryDue()) {
+                        metrics.recordNegativeHit();
+                        logger.info("urlTextContent => (stale, revalidation failed) {}", url);
+                        return cachedContent;
                     }
-                } while (followRedirect && (++nFollows <= 5));
-                BufferedReader br = new BufferedReader(isr);
-                response = new StringBuilder();
-                String inputLine;
+                }
+            }
+        }
 
-                while ((inputLine = br.readLine()) != null) {
-                    response.append(inputLine);
+        metrics.recordCacheMiss();
+        return fetchOnce(url, key, cachedContent, cachedFailure, scraper, isAdmitted);
+    }
+
+    /**
+     * @return true if getContent() would answer from the cache without a network request
+     */
+    private boolean isAnsweredFromCache(URL url, PartKey key, ContentScraper scraper) {
+        if (!isCached) {
+            return false;
+        }
+        Element cacheElement = getContentCache().get(key);
+        if (cacheElement == null) {
+            cacheElement = loadFromPageStore(url, key);
+        }
+        if (cacheElement == null) {
+            return false;
+        }
+        if (cacheElement.getObjectValue() instanceof UrlFailure) {
+            return !((UrlFailure) cacheElement.getObjectValue()).isRetryDue();
+        }
+        UrlContent cachedContent = (UrlContent) cacheElement.getObjectValue();
+        if (cachedContent.isPartial() && scraper == null) {
+            return false;
+        }
+        if (cachedContent.getAge() < freshMillis || isRevalidatingStoredContent(key)) {
+            return true;
+        }
+        UrlFailure revalidationFailure = revalidationFailures.get(key);
+        return revalidationFailure != null && !revalidationFailure.isRetryDue();
+    }
+
+    /**
+     * Concurrent requests of this resolver for the same url share a single network fetch and its result or error.
+     * Streaming requests may also share a fetch of the entire page.
+     * Only the owner of a fetch is admitted by the host scheduler, so requests never wait on
+     * a shared fetch while holding an admission that its owner needs.
+     */
+    private UrlContent fetchOnce(final URL url, final PartKey key, final UrlContent cachedContent,
+                                 final UrlFailure cachedFailure, final ContentScraper scraper, boolean isAdmitted)
+            throws IOException {
+        if (isAdmitted) {
+            return fetchAndCache(url, key, cachedContent, cachedFailure, scraper, true);
+        }
+        String fetchKey = getFetchKey(key, scraper);
+        FutureTask<UrlContent> fetchTask = getInFlightFetch(key, fetchKey);
+        if (fetchTask == null) {
+            InFlightFetch newFetch = new InFlightFetch(fetchKey, new Callable<UrlContent>() {
+                @Override
+                public UrlContent call() throws Exception {
+                    return fetchAndCache(url, key, cachedContent, cachedFailure, scraper, false);
                 }
-                br.close();
+            });
+            fetchTask = inFlightFetches.putIfAbsent(fetchKey, newFetch);
+            if (fetchTask == null) {
+                newFetch.run();
+                return awaitFetch(newFetch, url);
             }
-            catch (Exception e) {
-                cacheElement = new Element(url, e);
-                getCache("URL-contents").put(cacheElement);
+        }
+        metrics.recordCoalescedRequest();
+        logger.info("urlTextContent => (coalesced) {}", url);
+        return awaitFetch(fetchTask, url);
+    }
+
+    private static String getFetchKey(PartKey key, ContentScraper scraper) {
+        return scraper == null ? key.toString() : PARTIAL_FETCH_PREFIX + key;
+    }
+
+    /**
+     * @return the fetch in flight for the given fetch key or for the entire page, if any
+     */
+    private FutureTask<UrlContent> getInFlightFetch(PartKey key, String fetchKey) {
+        FutureTask<UrlContent> fetchTask = inFlightFetches.get(key.toString());
+        return fetchTask == null ? inFlightFetches.get(fetchKey) : fetchTask;
+    }
+
+    private static UrlContent awaitFetch(FutureTask<UrlContent> fetchTask, URL url) throws IOException {
+        try {
+            return fetchTask.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(url.toString());
+        }
+        catch (CancellationException e) {
+            throw new ProxyResolutionException(url.toString() + " fetch was cancelled", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ProxyResolutionException(url.toString(), e);
+        }
+    }
+
+    private UrlContent fetchAndCache(URL url, PartKey key, UrlContent cachedContent, UrlFailure cachedFailure,
+                                     ContentScraper scraper, boolean isAdmitted) {
+        HttpArchive httpArchive = archive;
+        if (httpArchive != null && httpArchive.isReplay()) {
+            return replayAndCache(httpArchive, url, key, cachedFailure, scraper);
+        }
+        HostCircuitBreaker circuitBreaker = getCircuitBreaker(url.getHost());
+        if (!circuitBreaker.allowRequest()) {
+            if (cachedContent != null) {
+                logger.info("urlTextContent => (stale, host unavailable) {}", url);
+                return cachedContent;
+            }
+            throw new ProxyResolutionException("Vendor host is unavailable: " + url);
+        }
+        HostScheduler hostScheduler = getHostScheduler(url.getHost());
+        HostScheduler tenantScheduler = getTenantScheduler(url.getHost());
+        if (!isAdmitted) {
+            try {
+                tenantScheduler.acquire();
+                try {
+                    hostScheduler.acquire();
+                }
+                catch (InterruptedException e) {
+                    tenantScheduler.release();
+                    throw e;
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
                 throw new ProxyResolutionException(url.toString(), e);
             }
-            String content = response.toString();
-            cacheElement = new Element(url, content);
-            getCache("URL-contents").put(cacheElement);
-            logger.info("urlTextContent => ({}B) {}", content.length(), url);
-            return content;
+        }
+        UrlContent urlContent;
+        networkRequests.incrementAndGet();
+        metrics.recordFetchStarted();
+        long startMillis = System.currentTimeMillis();
+        FetchResponse response = new FetchResponse();
+        // a page cached in its entirety is refetched in its entirety, so that it stays complete
+        ContentScraper fetchScraper = cachedContent == null || cachedContent.isPartial() ? scraper : null;
+        try {
+            urlContent = fetch(url, cachedContent, fetchScraper, response);
+            long latencyMillis = System.currentTimeMillis() - startMillis;
+            if (httpArchive != null) {
+                try {
+                    httpArchive.record(url, response.status, response.headers, urlContent, latencyMillis);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not archive {}", url, e);
+                }
+            }
+            hostScheduler.recordResponse(latencyMillis);
+            tenantScheduler.recordResponse(latencyMillis);
+            metrics.recordFetchCompleted(url.getHost(), latencyMillis, false,
+                    cachedContent != null && cachedContent.getContentHash().equals(urlContent.getContentHash()));
+        }
+        catch (Exception e) {
+            long latencyMillis = System.currentTimeMillis() - startMillis;
+            metrics.recordFetchCompleted(url.getHost(), latencyMillis, true, false);
+            if (httpArchive != null && e instanceof IOException) {
+                try {
+                    httpArchive.recordFailure(url, e, latencyMillis);
+                }
+                catch (IOException archiveException) {
+                    logger.warn("Could not archive {}", url, archiveException);
+                }
+            }
+            boolean isThrottled = e instanceof HostThrottledException;
+            if (isThrottled) {
+                logger.warn("throttled by {} {}", url.getHost(), e.getMessage());
+                hostScheduler.recordThrottled(((HostThrottledException) e).getRetryAfterMillis());
+                tenantScheduler.recordThrottled(((HostThrottledException) e).getRetryAfterMillis());
+            }
+            // throttling says nothing about the url itself, unless the host is down altogether
+            if (!isThrottled || ((HostThrottledException) e).isOutage()) {
+                UrlFailure failure = cachedFailure == null ?
+                        new UrlFailure(e, failureRetryMillis) : cachedFailure.retryFailed(e, maxFailureRetryMillis);
+                if (cachedContent == null) {
+                    getContentCache().put(new Element(key, failure));
+                } else {
+                    revalidationFailures.put(key, failure); // stale content remains usable
+                }
+            }
+            // a host that keeps throttling every request is as unavailable as one that fails them
+            if (isHostFailure(e) && circuitBreaker.recordFailure()) {
+                logger.warn("opening circuit breaker for {}", url.getHost());
+                scheduleProbe(circuitBreaker, url);
+            }
+            if (cachedContent != null) {
+                logger.warn("urlTextContent => (stale, revalidation failed) {} {}", url, e.getMessage());
+                return cachedContent;
+            }
+            throw new ProxyResolutionException(url.toString(), e);
+        }
+        finally {
+            if (!isAdmitted) {
+                hostScheduler.release();
+                tenantScheduler.release();
+            }
+        }
+        circuitBreaker.recordSuccess();
+        putContent(key, urlContent);
+        if (cachedContent != null && cachedContent.getContentHash().equals(urlContent.getContentHash())) {
+            logger.info("urlTextContent => (unchanged) {}", url);
+        } else {
+            logger.info("urlTextContent => ({}B{}) {}",
+                    new Object[]{urlContent.getContentLength(), urlContent.isPartial() ? " partial" : "", url});
+        }
+        return urlContent;
+    }
+
+    private UrlContent replayAndCache(HttpArchive httpArchive, URL url, PartKey key, UrlFailure cachedFailure,
+                                      ContentScraper scraper) {
+        UrlContent urlContent;
+        try {
+            urlContent = httpArchive.replay(url);
+        }
+        catch (IOException e) {
+            UrlFailure failure = cachedFailure == null ?
+                    new UrlFailure(e, failureRetryMillis) : cachedFailure.retryFailed(e, maxFailureRetryMillis);
+            getContentCache().put(new Element(key, failure));
+            throw new ProxyResolutionException(url.toString(), e);
+        }
+        if (urlContent.isPartial() && scraper == null) {
+            // not cached as a failure, since streaming requests may still use the recorded part
+            throw new ProxyResolutionException("Only part of the page is in http archive: " + url);
+        }
+        putContent(key, urlContent);
+        logger.info("urlTextContent => (replayed) {}", url);
+        return urlContent;
+    }
+
+    /**
+     * Download url contents, revalidating cachedContent if given.
+     *
+     * @param fetchResponse receives the final response status and headers
+     * @return new contents or cachedContent revalidated
+     */
+    private UrlContent fetch(URL url, UrlContent cachedContent, ContentScraper scraper, FetchResponse fetchResponse)
+            throws IOException {
+        URL requestUrl = url;
+        StringBuilder response;
+        HttpURLConnection connection;
+        boolean followRedirect;
+        int nFollows = 0;
+        int responseCode;
+        do {
+            connection = createHttpURLConnection(requestUrl);
+            if (cachedContent != null && nFollows == 0) {
+                if (cachedContent.getETag() != null) {
+                    connection.setRequestProperty("If-None-Match", cachedContent.getETag());
+                }
+                if (cachedContent.getLastModified() != null) {
+                    connection.setRequestProperty("If-Modified-Since", cachedContent.getLastModified());
+                }
+            }
+            responseCode = connection.getResponseCode();
+            if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+                long retryAfterMillis = parseRetryAfter(connection.getHeaderField("Retry-After"));
+                connection.disconnect();
+                throw new HostThrottledException("HTTP " + responseCode + " " + requestUrl, responseCode, retryAfterMillis);
+            }
+            if (!isCached) {
+                logger.info("get({}) => {}", requestUrl, responseCode);
+            }
+            switch (responseCode) {
+                case HttpURLConnection.HTTP_MOVED_PERM:
+                case HttpURLConnection.HTTP_MOVED_TEMP: {
+                    String location = connection.getHeaderField("Location");
+                    discardBody(connection);
+                    requestUrl = new URL(location);
+                    metrics.recordRedirect();
+                    followRedirect = true;
+                    break;
+                }
+                default:
+                    followRedirect = false;
+                    break;
+            }
+        } while (followRedirect && (++nFollows <= 5));
+        fetchResponse.status = responseCode;
+        fetchResponse.headers = connection.getHeaderFields();
+        String eTag = connection.getHeaderField("ETag");
+        String lastModified = connection.getHeaderField("Last-Modified");
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedContent != null) {
+            discardBody(connection);
+            return cachedContent.revalidate(eTag, lastModified);
+        }
+        InputStreamReader isr = new InputStreamReader(openInputStream(connection));
+        BufferedReader br = new BufferedReader(isr);
+        response = new StringBuilder();
+        String inputLine;
+        boolean isPartial = false;
+        int nextScrape = SCRAPE_INTERVAL;
+
+        while ((inputLine = br.readLine()) != null) {
+            response.append(inputLine);
+            if (scraper != null && response.length() >= nextScrape) {
+                nextScrape = response.length() + SCRAPE_INTERVAL;
+                if (scraper.isComplete(response)) {
+                    isPartial = true;
+                    break;
+                }
+            }
+        }
+        if (isPartial) {
+            connection.disconnect(); // don't drain the rest of the page
         } else {
-            if (cacheElement.getObjectValue() instanceof IOException) {
-                logger.info("throwing cached exception for {}", url);
-                throw (IOException) cacheElement.getObjectValue();
+            br.close();
+        }
+        return new UrlContent(response.toString(), eTag, lastModified, isPartial);
+    }
+
+    /**
+     * @return Retry-After delay in seconds as milliseconds, or 0 if absent or given as a date
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(retryAfter.trim()) * 1000;
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A host failure means the vendor could not serve any page, as opposed to
+     * a missing page or a malformed url.
+     */
+    private static boolean isHostFailure(Exception e) {
+        return e instanceof IOException && !(e instanceof FileNotFoundException) && !(e instanceof MalformedURLException);
+    }
+
+    /**
+     * Host names are case insensitive.
+     */
+    private static String getHostKey(String host) {
+        return host.toLowerCase(US);
+    }
+
+    private HostCircuitBreaker getCircuitBreaker(String host) {
+        host = getHostKey(host);
+        HostCircuitBreaker circuitBreaker = circuitBreakers.get(host);
+        if (circuitBreaker == null) {
+            HostCircuitBreaker newCircuitBreaker = new HostCircuitBreaker(host);
+            circuitBreaker = circuitBreakers.putIfAbsent(host, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Every vendor host has its own scheduler, which callers may configure to match the vendor's politeness policy.
+     * It is the ceiling shared by all resolvers. Requests are first admitted by the resolver's own
+     * scheduler for the host, so that the queued requests of one resolver do not hold up another's.
+     */
+    public static HostScheduler getHostScheduler(String host) {
+        host = getHostKey(host);
+        HostScheduler hostScheduler = hostSchedulers.get(host);
+        if (hostScheduler == null) {
+            HostScheduler newHostScheduler = new HostScheduler(host);
+            hostScheduler = hostSchedulers.putIfAbsent(host, newHostScheduler);
+            if (hostScheduler == null) {
+                hostScheduler = newHostScheduler;
+            }
+        }
+        return hostScheduler;
+    }
+
+    /**
+     * @return this resolver's scheduler for the given host, which admits requests before the host's shared ceiling
+     */
+    public HostScheduler getTenantScheduler(String host) {
+        host = getHostKey(host);
+        HostScheduler tenantScheduler = tenantSchedulers.get(host);
+        if (tenantScheduler == null) {
+            HostScheduler newTenantScheduler = new HostScheduler(host);
+            tenantScheduler = tenantSchedulers.putIfAbsent(host, newTenantScheduler);
+            if (tenantScheduler == null) {
+                tenantScheduler = newTenantScheduler;
+            }
+        }
+        return tenantScheduler;
+    }
+
+    /**
+     * @param cookies sent to the given host unless this resolver sets its own, or null for none
+     */
+    public CachedUrlResolver setHostCookies(String host, String cookies) {
+        host = getHostKey(host);
+        if (cookies == null) {
+            hostCookies.remove(host);
+        } else {
+            hostCookies.put(host, cookies);
+        }
+        return this;
+    }
+
+    /**
+     * Probe an unavailable host in the background until it answers again.
+     */
+    private void scheduleProbe(final HostCircuitBreaker circuitBreaker, final URL url) {
+        timerExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    HttpURLConnection connection = createHttpURLConnection(url);
+                    connection.setRequestMethod("HEAD");
+                    int responseCode = connection.getResponseCode();
+                    connection.disconnect();
+                    if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                        throw new IOException("HTTP " + responseCode);
+                    }
+                    logger.info("closing circuit breaker for {}", url.getHost());
+                    circuitBreaker.recordSuccess();
+                }
+                catch (IOException e) {
+                    logger.info("probe failed for {} {}", url.getHost(), e.getMessage());
+                    circuitBreaker.recordProbeFailure();
+                    scheduleProbe(circuitBreaker, url);
+                }
+            }
+        }, circuitBreaker.getOpenMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A partial page never replaces the entire page, which other requests may need.
+     */
+    private void putContent(PartKey key, UrlContent urlContent) {
+        if (urlContent.isPartial() && isEntirePageCached(key)) {
+            logger.debug("keeping entire page cached for {}", key);
+            return;
+        }
+        getContentCache().put(new Element(key, urlContent));
+        revalidationFailures.remove(key);
+        UrlContentStore store = pageStore;
+        if (store != null) {
+            store.put(getStoreKey(key), urlContent);
+        }
+    }
+
+    private boolean isEntirePageCached(PartKey key) {
+        Element cacheElement = getContentCache().get(key);
+        Object cachedValue = cacheElement == null ? null : cacheElement.getObjectValue();
+        if (cachedValue == null || cachedValue instanceof UrlFailure) {
+            UrlContentStore store = pageStore;
+            cachedValue = store == null ? null : store.get(getStoreKey(key));
+        }
+        return cachedValue instanceof UrlContent && !((UrlContent) cachedValue).isPartial();
+    }
+
+    private Element loadFromPageStore(URL url, PartKey key) {
+        UrlContentStore store = pageStore;
+        if (store == null) {
+            return null;
+        }
+        UrlContent storedContent = store.get(getStoreKey(key));
+        if (storedContent == null) {
+            return null;
+        }
+        // warm restart: stored contents keep their fetch time, so stale ones are revalidated
+        Element cacheElement = new Element(key, storedContent);
+        getContentCache().put(cacheElement);
+        logger.info("urlTextContent => (stored) {}", url);
+        if (storedContent.getAge() >= freshMillis && !storedContent.isPartial()) {
+            storedRevalidations.put(key, getAsync(url));
+        }
+        return cacheElement;
+    }
+
+    /**
+     * @return true while stored contents of the given url are revalidated in the background
+     */
+    private boolean isRevalidatingStoredContent(PartKey key) {
+        Future<UrlContent> revalidation = storedRevalidations.get(key);
+        if (revalidation == null) {
+            return false;
+        }
+        if (revalidation.isDone()) {
+            storedRevalidations.remove(key, revalidation);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fetch url contents on the bounded fetch executor so that many vendor round-trips
+     * can be in flight at the same time. Failures are reported by the returned future.
+     * Requests wait in this resolver's queue for their host and then in the host's shared queue
+     * rather than on a fetch thread, so a throttled vendor does not hold up requests to other vendors.
+     * Requests for a url that is already being fetched share that fetch without being queued.
+     * Replayed requests never reach a vendor, so they are not queued either.
+     */
+    public Future<UrlContent> getAsync(URL url) {
+        return getAsync(url, null);
+    }
+
+    public Future<UrlContent> getAsync(final URL url, final ContentScraper scraper) {
+        final PartKey key = PartKey.of(url);
+        HttpArchive httpArchive = archive;
+        boolean isReplay = httpArchive != null && httpArchive.isReplay();
+        if (isReplay || isAnsweredFromCache(url, key, scraper)) {
+            FutureTask<UrlContent> task = new FutureTask<UrlContent>(new Callable<UrlContent>() {
+                @Override
+                public UrlContent call() throws Exception {
+                    return getContent(url, key, scraper, false);
+                }
+            });
+            if (isReplay) {
+                getFetchExecutor().execute(task);
             } else {
-                logger.info("urlTextContent => (cached) {}", url);
-                return cacheElement.getObjectValue().toString();
+                task.run();
             }
+            return task;
+        }
+        String fetchKey = getFetchKey(key, scraper);
+        FutureTask<UrlContent> fetchTask = getInFlightFetch(key, fetchKey);
+        if (fetchTask == null) {
+            InFlightFetch newFetch = new InFlightFetch(fetchKey, new Callable<UrlContent>() {
+                @Override
+                public UrlContent call() throws Exception {
+                    return getContent(url, key, scraper, true);
+                }
+            });
+            fetchTask = inFlightFetches.putIfAbsent(fetchKey, newFetch);
+            if (fetchTask == null) {
+                final HostScheduler hostScheduler = getHostScheduler(url.getHost());
+                final ExecutorService executor = getFetchExecutor();
+                getTenantScheduler(url.getHost()).submit(newFetch, new Executor() {
+                    @Override
+                    public void execute(Runnable admittedFetch) {
+                        hostScheduler.submit(admittedFetch, executor, timerExecutor);
+                    }
+                }, timerExecutor);
+                return newFetch;
+            }
+        }
+        recordUrlRequest();
+        metrics.recordCoalescedRequest();
+        logger.info("urlTextContent => (coalesced) {}", url);
+        return fetchTask;
+    }
+
+    protected synchronized ExecutorService getFetchExecutor() {
+        if (fetchExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(fetchThreads, fetchThreads,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new FetchThreadFactory("CachedUrlResolver-fetch-"));
+            executor.allowCoreThreadTimeOut(true);
+            fetchExecutor = executor;
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * Stop the fetch threads. Queued fetches that have not started fail, so that nobody waits on them.
+     */
+    public synchronized void shutdown() {
+        if (fetchExecutor != null) {
+            for (Runnable droppedFetch : fetchExecutor.shutdownNow()) {
+                HostScheduler.reject(droppedFetch);
+            }
+            fetchExecutor = null;
+        }
+        // fetches still waiting for admission would only be rejected once their host admits them
+        RejectedExecutionException shutdown = new RejectedExecutionException("url resolver was shut down");
+        for (InFlightFetch fetch : inFlightFetches.values()) {
+            if (!fetch.isStarted()) {
+                fetch.fail(shutdown);
+            }
+        }
+    }
+
+    /**
+     * Decode the response body once the status says it will be read.
+     * Servers may declare a content encoding for an empty body, which is then returned as is.
+     */
+    private InputStream openInputStream(HttpURLConnection connection) throws IOException {
+        InputStream is = new BufferedInputStream(
+                new CountingInputStream(connection.getInputStream(), connection.getURL().getHost()));
+        String encoding = connection.getContentEncoding();
+        if (encoding == null || isEmpty(is)) {
+            return is;
+        }
+        if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+            is = new GZIPInputStream(is);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            is = new InflaterInputStream(is);
+        }
+        return is;
+    }
+
+    private static boolean isEmpty(InputStream is) throws IOException {
+        is.mark(1);
+        boolean isEmpty = is.read() < 0;
+        is.reset();
+        return isEmpty;
+    }
+
+    /**
+     * Close the body of a response that is not read, such as a redirect or 304 Not Modified,
+     * so that its connection may be reused.
+     */
+    private static void discardBody(HttpURLConnection connection) {
+        try {
+            connection.getInputStream().close();
+        }
+        catch (IOException e) {
+            connection.disconnect();
         }
     }
 
     private HttpURLConnection createHttpURLConnection(URL url) throws IOException {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
         connection.setRequestProperty("Accept", accept);
+        connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
         connection.setRequestProperty("Accept-Language", language);
         connection.setRequestProperty("User-Agent", userAgent);
-        if (cookies != null) {
-            connection.setRequestProperty("Cookie", cookies);
+        String requestCookies = cookies == null ? hostCookies.get(getHostKey(url.getHost())) : cookies;
+        if (requestCookies != null) {
+            connection.setRequestProperty("Cookie", requestCookies);
         }
         if (basicAuth != null) {
             connection.setRequestProperty("Authentication", basicAuth);
@@ -194,16 +960,127 @@ public class CachedUrlResolver {
         return result;
     }
 
-    private Ehcache getCache(String name) {
-        return CacheManager.getInstance().addCacheIfAbsent(name);
+    /**
+     * Contents of other scopes than the default are cached like those of the default scope.
+     */
+    private Ehcache getContentCache() {
+        CacheManager cacheManager = CacheManager.getInstance();
+        Ehcache cache = cacheManager.getEhcache(contentCacheName);
+        if (cache != null) {
+            return cache;
+        }
+        Ehcache defaultCache = contentCacheName.equals(URL_CONTENTS_CACHE) ? null : cacheManager.getEhcache(URL_CONTENTS_CACHE);
+        if (defaultCache == null) {
+            return cacheManager.addCacheIfAbsent(contentCacheName);
+        }
+        CacheConfiguration configuration = defaultCache.getCacheConfiguration().clone();
+        configuration.setName(contentCacheName);
+        return cacheManager.addCacheIfAbsent(new Cache(configuration));
+    }
+
+    private String getStoreKey(PartKey key) {
+        return storeKeyPrefix + key;
+    }
+
+    public String getContentCacheName() {
+        return contentCacheName;
     }
 
+    private void recordUrlRequest() {
+        urlRequests.incrementAndGet();
+        metrics.recordUrlRequest();
+    }
+
+    /**
+     * @return number of url requests made to this resolver. Totals of all resolvers are in getMetrics().
+     */
     public long getUrlRequests() {
-        return urlRequests;
+        return urlRequests.get();
     }
 
+    /**
+     * @return number of network fetches made by this resolver
+     */
     public long getNetworkRequests() {
-        return networkRequests;
+        return networkRequests.get();
+    }
+
+    /**
+     * @return number of requests that waited on another request's fetch of the same url
+     */
+    public static long getCoalescedRequests() {
+        return metrics.getCoalescedRequests();
+    }
+
+    public long getFreshMillis() {
+        return freshMillis;
+    }
+
+    public CachedUrlResolver setFreshMillis(long freshMillis) {
+        this.freshMillis = freshMillis;
+        return this;
+    }
+
+    public long getFailureRetryMillis() {
+        return failureRetryMillis;
+    }
+
+    /**
+     * Failed fetches are cached and retried after this delay, which doubles with
+     * each consecutive failure up to maxFailureRetryMillis.
+     */
+    public CachedUrlResolver setFailureRetryMillis(long failureRetryMillis) {
+        this.failureRetryMillis = failureRetryMillis;
+        return this;
+    }
+
+    public long getMaxFailureRetryMillis() {
+        return maxFailureRetryMillis;
+    }
+
+    public CachedUrlResolver setMaxFailureRetryMillis(long maxFailureRetryMillis) {
+        this.maxFailureRetryMillis = maxFailureRetryMillis;
+        return this;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public CachedUrlResolver setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public CachedUrlResolver setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    public int getFetchThreads() {
+        return fetchThreads;
+    }
+
+    public synchronized CachedUrlResolver setFetchThreads(int fetchThreads) {
+        if (fetchThreads <= 0) {
+            throw new IllegalArgumentException("fetch threads must be positive: " + fetchThreads);
+        }
+        this.fetchThreads = fetchThreads;
+        if (fetchExecutor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) fetchExecutor;
+            if (fetchThreads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(fetchThreads);
+                executor.setCorePoolSize(fetchThreads);
+            } else {
+                executor.setCorePoolSize(fetchThreads);
+                executor.setMaximumPoolSize(fetchThreads);
+            }
+        }
+        return this;
     }
 
     public String getCookies() {
@@ -253,5 +1130,86 @@ public class CachedUrlResolver {
         return this;
     }
 
+    /**
+     * A single-flight fetch, which stops being shared once it completes.
+     */
+    private class InFlightFetch extends FutureTask<UrlContent> {
+        private final String key;
+        private volatile boolean isStarted;
+
+        InFlightFetch(String key, Callable<UrlContent> callable) {
+            super(callable);
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            isStarted = true;
+            super.run();
+        }
 
+        boolean isStarted() {
+            return isStarted;
+        }
+
+        void fail(Exception e) {
+            setException(e);
+        }
+
+        @Override
+        protected void done() {
+            inFlightFetches.remove(key, this);
+        }
+    }
+
+    private static class FetchResponse {
+        int status;
+        Map<String, List<String>> headers;
+    }
+
+    /**
+     * Counts bytes received on the wire, before any content decoding.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final String host;
+
+        CountingInputStream(InputStream in, String host) {
+            super(in);
+            this.host = host;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                metrics.recordBytes(host, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                metrics.recordBytes(host, n);
+            }
+            return n;
+        }
+    }
+
+    private static class FetchThreadFactory implements ThreadFactory {
+        private AtomicInteger threadCount = new AtomicInteger();
+        private String prefix;
+
+        FetchThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
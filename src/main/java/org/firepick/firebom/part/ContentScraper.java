@@ -0,0 +1,72 @@
+package org.firepick.firebom.part;
+/*
+   ContentScraper.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tracks the fields a part scrapes from its page so that CachedUrlResolver can stop
+ * reading the page as soon as all of them have been seen.
+ * Each field is delimited by start and end patterns as in PartFactory.scrapeText().
+ * End patterns must not be anchored to the end of input.
+ * A scraper keeps scan state and should only be used for a single fetch.
+ */
+public class ContentScraper {
+    private static final int OVERLAP = 1024;
+    private List<Pattern[]> fields = new ArrayList<Pattern[]>();
+    private List<Integer> searchStarts = new ArrayList<Integer>();
+
+    public ContentScraper require(Pattern start, Pattern end) {
+        fields.add(new Pattern[]{start, end});
+        searchStarts.add(0);
+        return this;
+    }
+
+    /**
+     * Scan the text read so far. Text is only appended between calls, so each field
+     * is searched from where the previous scan left off.
+     *
+     * @param text page text read so far
+     * @return true if every required field can be scraped from text
+     */
+    public boolean isComplete(CharSequence text) {
+        boolean isComplete = true;
+        for (int i = 0; i < fields.size(); i++) {
+            int searchStart = searchStarts.get(i);
+            if (searchStart < 0) {
+                continue; // found
+            }
+            Pattern[] field = fields.get(i);
+            Matcher startMatcher = field[0].matcher(text);
+            if (startMatcher.find(searchStart)) {
+                Matcher endMatcher = field[1].matcher(text);
+                if (endMatcher.find(startMatcher.end())) {
+                    searchStarts.set(i, -1);
+                    continue;
+                }
+                searchStarts.set(i, startMatcher.start());
+            } else {
+                searchStarts.set(i, Math.max(searchStart, text.length() - OVERLAP));
+            }
+            isComplete = false;
+        }
+        return isComplete;
+    }
+}
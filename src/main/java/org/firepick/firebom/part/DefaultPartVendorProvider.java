@@ -0,0 +1,46 @@
+package org.firepick.firebom.part;
+/*
+   DefaultPartVendorProvider.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Vendors supported by FireBOM itself.
+ */
+public class DefaultPartVendorProvider implements PartVendorProvider {
+  @Override
+  public List<PartVendor> getVendors() {
+    List<PartVendor> vendors = new ArrayList<PartVendor>();
+    vendors.add(new SimplePartVendor(ShapewaysPart.class, "www.shapeways.com", "shapeways.com", "shpws.me"));
+    vendors.add(new SimplePartVendor(McMasterCarrPart.class, "www.mcmaster.com", "mcmaster.com")
+        .setPolicy(new VendorPolicy().setMaxConcurrency(1).setRequestsPerSecond(1)));
+    vendors.add(new SimplePartVendor(GitHubPart.class, "github.com", "www.github.com"));
+    vendors.add(new SimplePartVendor(MisumiPart.class, "us.misumi-ec.com"));
+    vendors.add(new SimplePartVendor(InventablesPart.class, "www.inventables.com", "inventables.com"));
+    vendors.add(new SimplePartVendor(PonokoPart.class, "www.ponoko.com", "ponoko.com"));
+    vendors.add(new SimplePartVendor(AmazonPart.class, "www.amazon.com", "amazon.com")
+        .setPolicy(new VendorPolicy().setRequestsPerSecond(1)));
+    vendors.add(new SimplePartVendor(TrinityLabsPart.class, "trinitylabs.com", "www.trinitylabs.com"));
+    vendors.add(new SimplePartVendor(MockPart.class, "mock"));
+    vendors.add(new SimplePartVendor(SparkfunPart.class, "www.sparkfun.com", "sparkfun.com"));
+    vendors.add(new SimplePartVendor(AdafruitPart.class, "www.adafruit.com", "adafruit.com"));
+    vendors.add(new SimplePartVendor(DigiKeyPart.class, "www.digikey.com", "digikey.com"));
+    vendors.add(new SimplePartVendor(SynthetosPart.class, "synthetos.myshopify.com"));
+    return vendors;
+  }
+}
@@ -32,17 +32,25 @@ public class DigiKeyPart extends HtmlPart {
         super(partFactory, url, urlResolver);
     }
 
+    @Override
+    protected ContentScraper createContentScraper() {
+        return new ContentScraper()
+                .require(startTitle, endTitle)
+                .require(startPrice, endPrice)
+                .require(startId, endId);
+    }
+
     @Override
     protected void refreshFromRemoteContent(String content) throws IOException {
-        String title = PartFactory.getInstance().scrapeText(content, startTitle, endTitle);
+        String title = PartFactory.scrapeText(content, startTitle, endTitle);
         if (title != null) {
             setTitle(title);
         }
-        String price = PartFactory.getInstance().scrapeText(content, startPrice, endPrice);
+        String price = PartFactory.scrapeText(content, startPrice, endPrice);
         if (price != null) {
             setPackageCost(Double.parseDouble(price));
         }
-        String id = PartFactory.getInstance().scrapeText(content, startId, endId);
+        String id = PartFactory.scrapeText(content, startId, endId);
         if (id != null) {
             setId(id);
         }
@@ -33,9 +33,9 @@ public class GitHubPart extends HtmlPart {
     @Override
     protected void refreshFromRemoteContent(String content) throws IOException {
         super.refreshFromRemoteContent(content);
-        String id = PartFactory.getInstance().scrapeText(content, startId, endId);
+        String id = PartFactory.scrapeText(content, startId, endId);
         setId(id);
-        String title = PartFactory.getInstance().scrapeText(content, startTitle, endTitle);
+        String title = PartFactory.scrapeText(content, startTitle, endTitle);
         if (title != null) {
             title = title.replaceAll("\\s*<a href.*","");
             setTitle(title);
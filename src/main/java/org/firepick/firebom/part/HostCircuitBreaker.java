@@ -0,0 +1,116 @@
+package org.firepick.firebom.part;
+/*
+   HostCircuitBreaker.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+/**
+ * Fails requests to a vendor host fast after repeated host failures.
+ * An open breaker rejects all requests until a background probe of the host succeeds.
+ * The delay between probes doubles after each failed probe.
+ */
+public class HostCircuitBreaker {
+    public static int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static long DEFAULT_MIN_OPEN_MILLIS = 5000;
+    public static long DEFAULT_MAX_OPEN_MILLIS = 300000;
+    private final String host;
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long minOpenMillis = DEFAULT_MIN_OPEN_MILLIS;
+    private long maxOpenMillis = DEFAULT_MAX_OPEN_MILLIS;
+    private int consecutiveFailures;
+    private boolean isOpen;
+    private long openMillis;
+
+    public HostCircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    public synchronized boolean allowRequest() {
+        return !isOpen;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        isOpen = false;
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        if (!isOpen && consecutiveFailures >= failureThreshold) {
+            isOpen = true;
+            openMillis = minOpenMillis;
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void recordProbeFailure() {
+        openMillis = Math.min(maxOpenMillis, 2 * openMillis);
+    }
+
+    /**
+     * @return delay before the next probe of an open breaker
+     */
+    public synchronized long getOpenMillis() {
+        return openMillis;
+    }
+
+    public synchronized boolean isOpen() {
+        return isOpen;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public synchronized HostCircuitBreaker setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    public long getMinOpenMillis() {
+        return minOpenMillis;
+    }
+
+    public synchronized HostCircuitBreaker setMinOpenMillis(long minOpenMillis) {
+        this.minOpenMillis = minOpenMillis;
+        return this;
+    }
+
+    public long getMaxOpenMillis() {
+        return maxOpenMillis;
+    }
+
+    public synchronized HostCircuitBreaker setMaxOpenMillis(long maxOpenMillis) {
+        this.maxOpenMillis = maxOpenMillis;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return host + (isOpen() ? " open" : " closed");
+    }
+}
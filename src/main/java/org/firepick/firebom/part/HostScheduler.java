@@ -0,0 +1,312 @@
+package org.firepick.firebom.part;
+/*
+   HostScheduler.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Politeness scheduler for requests to a single vendor host.
+ * Requests are admitted by a token bucket rate limit and an adaptive concurrency limit.
+ * The concurrency limit grows by one after a limit's worth of normal responses and
+ * shrinks when response latency rises. Throttling responses (HTTP 429/503) halve the
+ * limit and pause the host.
+ * Queued asynchronous requests are dispatched as soon as the host admits them, so that
+ * a throttled host never occupies fetch threads that other hosts could use.
+ * A request may be dispatched into another scheduler's queue, which admits it in turn.
+ */
+public class HostScheduler {
+    public static int DEFAULT_MAX_CONCURRENCY = 4;
+    public static double DEFAULT_REQUESTS_PER_SECOND = 4;
+    public static int DEFAULT_BURST = 4;
+    public static long DEFAULT_THROTTLE_PAUSE_MILLIS = 2000;
+    private static final long WAIT_FOR_RELEASE = -1;
+    private final String host;
+    private final Queue<Admission> pendingRequests = new ConcurrentLinkedQueue<Admission>();
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+    private int burst = DEFAULT_BURST;
+    private long throttlePauseMillis = DEFAULT_THROTTLE_PAUSE_MILLIS;
+    private double latencyTolerance = 2;
+    private int concurrencyLimit;
+    private int activeRequests;
+    private int normalResponses;
+    private double tokens;
+    private long refillMillis;
+    private long pausedUntilMillis;
+    private double averageLatency;
+    private boolean isDispatchScheduled;
+    private boolean isDispatching;
+    private boolean isDispatchRequested;
+    private ScheduledExecutorService timer;
+
+    public HostScheduler(String host) {
+        this.host = host;
+        this.concurrencyLimit = Math.max(1, maxConcurrency / 2);
+        this.tokens = burst;
+        this.refillMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Try to admit a request.
+     *
+     * @return 0 if admitted, otherwise milliseconds until a retry may succeed or WAIT_FOR_RELEASE
+     */
+    private long tryAcquire() {
+        long now = System.currentTimeMillis();
+        tokens = Math.min(burst, tokens + (now - refillMillis) * requestsPerSecond / 1000);
+        refillMillis = now;
+        if (activeRequests >= concurrencyLimit) {
+            return WAIT_FOR_RELEASE;
+        }
+        if (now < pausedUntilMillis) {
+            return pausedUntilMillis - now;
+        }
+        if (tokens < 1) {
+            return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / requestsPerSecond));
+        }
+        tokens -= 1;
+        activeRequests++;
+        return 0;
+    }
+
+    /**
+     * Block until the host admits a request. Every acquire() must be followed by release().
+     */
+    public synchronized void acquire() throws InterruptedException {
+        long wait;
+        while ((wait = tryAcquire()) != 0) {
+            wait(wait == WAIT_FOR_RELEASE ? 0 : wait);
+        }
+    }
+
+    public void release() {
+        synchronized (this) {
+            activeRequests--;
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    /**
+     * Queue a request that will be run on the given executor once the host admits it.
+     * The host is released when the request completes. If the executor rejects the request,
+     * the host is released at once and the request is cancelled if it is a Future.
+     */
+    public void submit(Runnable request, Executor executor, ScheduledExecutorService timer) {
+        synchronized (this) {
+            this.timer = timer;
+        }
+        pendingRequests.add(new Admission(request, executor));
+        dispatch();
+    }
+
+    /**
+     * Only one thread dispatches at a time. Releases by the requests it dispatches, or by the requests
+     * it rejects, make it look at the queue again rather than dispatching recursively.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (isDispatching) {
+                isDispatchRequested = true;
+                return;
+            }
+            isDispatching = true;
+        }
+        for (; ; ) {
+            Admission request;
+            synchronized (this) {
+                long wait = pendingRequests.isEmpty() ? WAIT_FOR_RELEASE : tryAcquire();
+                if (wait != 0) {
+                    if (isDispatchRequested) {
+                        isDispatchRequested = false;
+                        continue;
+                    }
+                    if (wait != WAIT_FOR_RELEASE && !isDispatchScheduled) {
+                        isDispatchScheduled = true;
+                        timer.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                synchronized (HostScheduler.this) {
+                                    isDispatchScheduled = false;
+                                }
+                                dispatch();
+                            }
+                        }, wait, TimeUnit.MILLISECONDS);
+                    }
+                    isDispatching = false;
+                    return;
+                }
+                request = pendingRequests.poll();
+            }
+            try {
+                request.executor.execute(request);
+            }
+            catch (RejectedExecutionException e) {
+                request.reject();
+            }
+        }
+    }
+
+    /**
+     * Release the admissions of a request that an executor dropped without running it, e.g. on shutdown,
+     * and cancel the request if it is a Future.
+     */
+    static void reject(Runnable request) {
+        if (request instanceof Admission) {
+            ((Admission) request).reject();
+        } else if (request instanceof Future) {
+            ((Future<?>) request).cancel(false);
+        }
+    }
+
+    /**
+     * Adapt to the outcome of an admitted request.
+     */
+    public synchronized void recordResponse(long latencyMillis) {
+        if (averageLatency > 0 && latencyMillis > latencyTolerance * averageLatency) {
+            if (concurrencyLimit > 1) {
+                concurrencyLimit--;
+            }
+            normalResponses = 0;
+        } else if (++normalResponses >= concurrencyLimit && concurrencyLimit < maxConcurrency) {
+            concurrencyLimit++;
+            normalResponses = 0;
+        }
+        averageLatency = averageLatency == 0 ? latencyMillis : 0.8 * averageLatency + 0.2 * latencyMillis;
+    }
+
+    public synchronized void recordThrottled(long retryAfterMillis) {
+        concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+        normalResponses = 0;
+        long pause = Math.max(throttlePauseMillis, retryAfterMillis);
+        pausedUntilMillis = Math.max(pausedUntilMillis, System.currentTimeMillis() + pause);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public synchronized int getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public synchronized int getActiveRequests() {
+        return activeRequests;
+    }
+
+    public int getPendingRequests() {
+        return pendingRequests.size();
+    }
+
+    public synchronized int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public synchronized HostScheduler setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("max concurrency must be positive: " + maxConcurrency);
+        }
+        this.maxConcurrency = maxConcurrency;
+        concurrencyLimit = Math.min(concurrencyLimit, maxConcurrency);
+        return this;
+    }
+
+    public synchronized double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    public synchronized HostScheduler setRequestsPerSecond(double requestsPerSecond) {
+        if (requestsPerSecond <= 0) {
+            throw new IllegalArgumentException("request rate must be positive: " + requestsPerSecond);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    public synchronized HostScheduler setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+        return this;
+    }
+
+    public synchronized long getThrottlePauseMillis() {
+        return throttlePauseMillis;
+    }
+
+    public synchronized HostScheduler setThrottlePauseMillis(long throttlePauseMillis) {
+        this.throttlePauseMillis = throttlePauseMillis;
+        return this;
+    }
+
+    public synchronized double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    /**
+     * @param latencyTolerance responses slower than this multiple of the average latency reduce concurrency
+     */
+    public synchronized HostScheduler setLatencyTolerance(double latencyTolerance) {
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return host + " " + getActiveRequests() + "/" + getConcurrencyLimit();
+    }
+
+    /**
+     * An admitted request, which releases the host once it has run or been rejected.
+     */
+    private class Admission implements Runnable {
+        private final Runnable request;
+        private final Executor executor;
+
+        Admission(Runnable request, Executor executor) {
+            this.request = request;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                request.run();
+            }
+            finally {
+                release();
+            }
+        }
+
+        void reject() {
+            try {
+                HostScheduler.reject(request);
+            }
+            finally {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.firepick.firebom.part;
+/*
+   HostThrottledException.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * A vendor host asked us to slow down with HTTP 429 or 503.
+ */
+public class HostThrottledException extends IOException {
+    private static final long serialVersionUID = 3613210737506538825L;
+    private final int responseCode;
+    private final long retryAfterMillis;
+
+    public HostThrottledException(String message, int responseCode, long retryAfterMillis) {
+        super(message);
+        this.responseCode = responseCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return delay requested by the Retry-After header or 0 if none
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return true for a 503 without Retry-After, which reports an outage rather than asking us to slow down
+     */
+    public boolean isOutage() {
+        return responseCode == HttpURLConnection.HTTP_UNAVAILABLE && retryAfterMillis == 0;
+    }
+}
@@ -49,7 +49,7 @@ public class HtmlPart extends Part {
                 }
                 String primarySource = newSourceList.get(0);
                 URL sourceUrl = parseLink(primarySource);
-                Part sourcePart = PartFactory.getInstance().createPart(sourceUrl);
+                Part sourcePart = getPartFactory().createPart(sourceUrl).prefetch();
                 Double quantity = parseQuantity(primarySource, null);
                 if (quantity != null) {
                     // Package Unit Override
@@ -65,14 +65,12 @@ public class HtmlPart extends Part {
                 }
             } else if (ulPart.contains("@Require")) {
                 List<String> requiredItems = parseListItemStrings(ulPart);
-                newRequiredParts = new ArrayList<PartUsage>();
+                List<URL> links = new ArrayList<URL>();
+                List<Double> quantities = new ArrayList<Double>();
                 for (String required : requiredItems) {
                     try {
-                        URL link = parseLink(required);
-                        double quantity = parseQuantity(required, 1d);
-                        Part part = PartFactory.getInstance().createPart(link);
-                        PartUsage partUsage = new PartUsage(part, quantity);
-                        newRequiredParts.add(partUsage);
+                        links.add(parseLink(required));
+                        quantities.add(parseQuantity(required, 1d));
                     }
                     catch (MalformedURLException ex) {
                         if (required.startsWith("http")) {
@@ -82,14 +80,20 @@ public class HtmlPart extends Part {
                         }
                     }
                 }
+                List<Part> parts = getPartFactory().createParts(links);
+                newRequiredParts = new ArrayList<PartUsage>();
+                for (int i = 0; i < parts.size(); i++) {
+                    Part part = parts.get(i).prefetch();
+                    newRequiredParts.add(new PartUsage(part, quantities.get(i)));
+                }
             }
         }
 
         if (newRequiredParts != null) {
-            requiredParts = newRequiredParts;
+            setRequiredParts(newRequiredParts);
         }
         if (newSourcePartUsage != null) {
-            sourceList = newSourceList;
+            setSourceList(newSourceList);
             setSourcePartUsage(newSourcePartUsage);
         }
     }
@@ -0,0 +1,242 @@
+package org.firepick.firebom.part;
+/*
+   HttpArchive.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Directory of recorded HTTP responses for offline, deterministic runs.
+ * In RECORD mode CachedUrlResolver writes every response with its status, headers and latency.
+ * In REPLAY mode responses are served only from the archive, optionally after the recorded latency.
+ * Each url is kept as a pair of files named by the hash of the url: response metadata
+ * as properties and the response body as UTF-8 text.
+ * Responses that were read only in part are recorded as partial and never replace a
+ * recording of the entire page.
+ */
+public class HttpArchive {
+    public enum Mode {RECORD, REPLAY}
+
+    private static Logger logger = LoggerFactory.getLogger(HttpArchive.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HEADER_PREFIX = "header.";
+    private final File directory;
+    private final Mode mode;
+    private boolean isReplayLatency;
+
+    public HttpArchive(File directory, Mode mode) throws IOException {
+        if (mode == Mode.RECORD && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create http archive " + directory);
+        }
+        if (mode == Mode.REPLAY && !directory.isDirectory()) {
+            throw new FileNotFoundException("No http archive " + directory);
+        }
+        this.directory = directory;
+        this.mode = mode;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isReplay() {
+        return mode == Mode.REPLAY;
+    }
+
+    public boolean isReplayLatency() {
+        return isReplayLatency;
+    }
+
+    /**
+     * @param isReplayLatency true to delay each replayed response by its recorded latency
+     */
+    public HttpArchive setReplayLatency(boolean isReplayLatency) {
+        this.isReplayLatency = isReplayLatency;
+        return this;
+    }
+
+    public void record(URL url, int status, Map<String, List<String>> headers, UrlContent content, long latencyMillis)
+            throws IOException {
+        String basename = getBasename(url);
+        if (content.isPartial() && isEntirePageRecorded(basename)) {
+            logger.debug("keeping entire page recorded for {}", url);
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("url", url.toString());
+        properties.setProperty("status", Integer.toString(status));
+        properties.setProperty("latencyMillis", Long.toString(latencyMillis));
+        properties.setProperty("partial", Boolean.toString(content.isPartial()));
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() != null) {
+                    properties.setProperty(HEADER_PREFIX + header.getKey(), join(header.getValue()));
+                }
+            }
+        }
+        write(new File(directory, basename + ".body"), content.getContent().getBytes(UTF8));
+        writeProperties(basename, properties);
+    }
+
+    public void recordFailure(URL url, Exception failure, long latencyMillis) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", url.toString());
+        properties.setProperty("latencyMillis", Long.toString(latencyMillis));
+        properties.setProperty("failure", failure.getClass().getName());
+        properties.setProperty("message", String.valueOf(failure.getMessage()));
+        if (failure instanceof HostThrottledException) {
+            HostThrottledException throttled = (HostThrottledException) failure;
+            properties.setProperty("status", Integer.toString(throttled.getResponseCode()));
+            properties.setProperty("retryAfterMillis", Long.toString(throttled.getRetryAfterMillis()));
+        }
+        writeProperties(getBasename(url), properties);
+    }
+
+    /**
+     * @return recorded contents of the url
+     * @throws FileNotFoundException if the url was not recorded or was recorded as missing
+     * @throws IOException           as recorded for failed fetches
+     */
+    public UrlContent replay(URL url) throws IOException {
+        String basename = getBasename(url);
+        Properties properties = readProperties(basename);
+        if (properties == null) {
+            throw new FileNotFoundException("Not in http archive: " + url);
+        }
+        if (isReplayLatency) {
+            try {
+                Thread.sleep(Long.parseLong(properties.getProperty("latencyMillis", "0")));
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(url.toString());
+            }
+        }
+        String failure = properties.getProperty("failure");
+        if (failure != null) {
+            String message = properties.getProperty("message");
+            if (FileNotFoundException.class.getName().equals(failure)) {
+                throw new FileNotFoundException(message);
+            } else if (HostThrottledException.class.getName().equals(failure)) {
+                throw new HostThrottledException(message, Integer.parseInt(properties.getProperty("status")),
+                        Long.parseLong(properties.getProperty("retryAfterMillis")));
+            }
+            throw new IOException(message);
+        }
+        String content = new String(read(new File(directory, basename + ".body")), UTF8);
+        logger.debug("replay {} {}", properties.getProperty("status"), url);
+        return new UrlContent(content,
+                properties.getProperty(HEADER_PREFIX + "ETag"),
+                properties.getProperty(HEADER_PREFIX + "Last-Modified"),
+                Boolean.parseBoolean(properties.getProperty("partial")));
+    }
+
+    private String getBasename(URL url) {
+        return UrlContent.hash(url.toString().getBytes(UTF8));
+    }
+
+    private boolean isEntirePageRecorded(String basename) throws IOException {
+        Properties properties = readProperties(basename);
+        return properties != null && properties.getProperty("failure") == null &&
+                !Boolean.parseBoolean(properties.getProperty("partial"));
+    }
+
+    /**
+     * @return recorded response metadata or null if none
+     */
+    private Properties readProperties(String basename) throws IOException {
+        File propertiesFile = new File(directory, basename + ".properties");
+        if (!propertiesFile.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream is = new FileInputStream(propertiesFile);
+        try {
+            properties.load(is);
+        }
+        finally {
+            is.close();
+        }
+        return properties;
+    }
+
+    private void writeProperties(String basename, Properties properties) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        properties.store(bos, null);
+        write(new File(directory, basename + ".properties"), bos.toByteArray());
+    }
+
+    /**
+     * Write to a temporary file first so that a reader never sees a partly written response.
+     */
+    private static void write(File file, byte[] bytes) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream os = new FileOutputStream(tempFile);
+        try {
+            os.write(bytes);
+        }
+        finally {
+            os.close();
+        }
+        if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) > 0) {
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return mode + " " + directory;
+    }
+}
@@ -39,15 +39,15 @@ public class InventablesPart extends Part {
         if (urlTokens.length > 1) {
             searchContent = content.split(urlTokens[1])[1];
         }
-        String price = PartFactory.getInstance().scrapeText(searchContent, startPrice, endPrice);
+        String price = PartFactory.scrapeText(searchContent, startPrice, endPrice);
         if (price != null) {
             setPackageCost(Double.parseDouble(price));
         }
-        String id = PartFactory.getInstance().scrapeText(searchContent, startId, endId);
+        String id = PartFactory.scrapeText(searchContent, startId, endId);
         if (id != null) {
             setId(id);
         }
-        String title = PartFactory.getInstance().scrapeText(searchContent, startTitle, endTitle);
+        String title = PartFactory.scrapeText(searchContent, startTitle, endTitle);
         if (title != null) {
             if (urlTokens.length > 1) {
                 String [] urlPath = getUrl().getPath().split("/");
@@ -36,21 +36,26 @@ public class MisumiPart extends Part {
         super(partFactory, url, urlResolver);
     }
     
+    @Override
+    protected boolean isContentSelfContained() {
+        return false; // price and package units come from separate urls
+    }
+
     @Override
     protected void refreshFromRemoteContent(String content) throws IOException {
-        String item = PartFactory.getInstance().scrapeText(content, startItem, endItem);
+        String item = PartFactory.scrapeText(content, startItem, endItem);
         item = item.substring(item.length()-11);
-        String id = PartFactory.getInstance().scrapeText(getUrl().toString(), startId, endId);
+        String id = PartFactory.scrapeText(getUrl().toString(), startId, endId);
         setId(id);
         String priceUrl = priceTemplate.replaceAll("\\{PART\\}",id);
-        String partInfo = PartFactory.getInstance().urlTextContent(new URL(priceUrl));
-        String price = PartFactory.getInstance().scrapeText(partInfo, startPrice, endPrice);
+        String partInfo = getPartFactory().urlTextContent(new URL(priceUrl));
+        String price = PartFactory.scrapeText(partInfo, startPrice, endPrice);
         if (price != null) {
             setPackageCost(Double.parseDouble(price));
         }
         String packageUrl = packageTemplate.replaceAll("\\{ITEMCD\\}", item);
-        String packageText = PartFactory.getInstance().urlTextContent(new URL(packageUrl));
-        String packageUnits = PartFactory.getInstance().scrapeText(packageText, startPackage, endPackage);
+        String packageText = getPartFactory().urlTextContent(new URL(packageUrl));
+        String packageUnits = PartFactory.scrapeText(packageText, startPackage, endPackage);
         if (packageUnits != null) {
             setPackageUnits(Double.parseDouble(packageUnits));
         }
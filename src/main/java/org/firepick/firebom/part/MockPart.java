@@ -19,6 +19,7 @@ package org.firepick.firebom.part;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.List;
 
 public class MockPart extends Part {
     private int refreshFromRemoteCount;
@@ -32,9 +33,10 @@ public class MockPart extends Part {
         refreshFromRemoteCount++;
         try {
             URL url = getUrl();
-            PartFactory partFactory = PartFactory.getInstance();
+            PartFactory partFactory = getPartFactory();
             String[] pathSegments = url.getQuery().split("&");
-            ArrayList<PartUsage> newRequired = new ArrayList<PartUsage>();
+            List<URL> requiredUrls = new ArrayList<URL>();
+            List<Double> requiredQuantities = new ArrayList<Double>();
             for (String pathSegment : pathSegments) {
                 String[] tokens = pathSegment.split(":");
                 String key = tokens[0];
@@ -52,8 +54,8 @@ public class MockPart extends Part {
                     Part sourcePart = partFactory.createPart(new URL(decodedValue));
                     setSourcePartUsage(new PartUsage(sourcePart, qty));
                 } else if (key.equals("require")) {
-                    Part part = partFactory.createPart(new URL(decodedValue));
-                    newRequired.add(new PartUsage(part, qty));
+                    requiredUrls.add(new URL(decodedValue));
+                    requiredQuantities.add(qty);
                 } else if (key.equals("cost")) {
                     setPackageCost(Double.parseDouble(value));
                 } else if (key.equals("units")) {
@@ -62,7 +64,12 @@ public class MockPart extends Part {
                     setVendor(value);
                 }
             }
-            requiredParts = newRequired;
+            List<Part> parts = partFactory.createParts(requiredUrls);
+            ArrayList<PartUsage> newRequired = new ArrayList<PartUsage>();
+            for (int i = 0; i < parts.size(); i++) {
+                newRequired.add(new PartUsage(parts.get(i), requiredQuantities.get(i)));
+            }
+            setRequiredParts(newRequired);
         }
         catch (Exception e) {
             throw new RuntimeException(e);
@@ -70,6 +77,11 @@ public class MockPart extends Part {
     }
 
 
+    @Override
+    protected boolean isPrefetchable() {
+        return false; // mock parts have no remote content
+    }
+
     public int getRefreshFromRemoteCount() {
         return refreshFromRemoteCount;
     }
@@ -24,14 +24,20 @@ import org.firepick.firebom.exception.ProxyResolutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.concurrent.locks.Lock;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
@@ -39,29 +45,28 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
   private static Logger logger = LoggerFactory.getLogger(Part.class);
   private static Pattern startLink = Pattern.compile("<a[^>]*href=\"");
   private static Pattern endLink = Pattern.compile("\"");
-  protected List<String> sourceList;
-  protected List<PartUsage> requiredParts;
-  private PartUsage sourcePartUsage;
-  private String id;
-  private String title;
-  private String titleCategory;
-  private String vendor;
-  private String project;
-  private URL url;
-  private String contentHash;
-  private Double packageCost;
-  private Double packageUnits;
+  private volatile PartState state = PartState.EMPTY;
+  private transient PartState pendingState;
+  private volatile URL url;
+  private transient volatile PartKey key;
   private RefreshableTimer refreshableTimer;
-  private RuntimeException refreshException;
-  private boolean isResolved;
-  private Lock refreshLock = new ReentrantLock();
+  private ReentrantLock refreshLock = new ReentrantLock();
+  private transient Future<UrlContent> prefetchedContent;
+  private transient long prefetchMillis;
+  private transient volatile long refreshLatency;
+  private transient PartFactory partFactory;
+  private transient volatile Double packageCostRollup;
+  private transient volatile long rollupVersion;
+  private transient volatile Set<Part> parents; // weak, so that replaced assemblies are neither retained nor invalidated
+  transient volatile PartGraphOrder.Node graphNode; // written under the PartGraphOrder lock
+  private volatile boolean isStreamingScrape = true;
 
   public Part() {
     this(PartFactory.getInstance());
   }
 
   public Part(PartFactory partFactory) {
-    this.requiredParts = new ArrayList<PartUsage>();
+    this.partFactory = partFactory;
     this.refreshableTimer = new RefreshableTimer();
     if (partFactory != null) {
       setMinRefeshInterval(partFactory.getMinRefreshInterval());
@@ -73,21 +78,69 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     setUrl(url);
   }
 
-  public synchronized String getId() {
-    String value = id;
+  /**
+   * @return the factory that created this part, or the default factory
+   */
+  public PartFactory getPartFactory() {
+    PartFactory factory = partFactory;
+    return factory == null ? PartFactory.getInstance() : factory;
+  }
+
+  void bindPartFactory(PartFactory partFactory) {
+    if (this.partFactory == null) {
+      this.partFactory = partFactory;
+    }
+  }
+
+  /**
+   * Readers see the last published state without locking. A refresh in progress works on a
+   * pending state that only the refreshing thread sees until refresh() publishes it.
+   */
+  private PartState getState() {
+    if (refreshLock.isHeldByCurrentThread()) {
+      PartState pending = pendingState;
+      if (pending != null) {
+        return pending;
+      }
+    }
+    return state;
+  }
+
+  /**
+   * Writers hold the refresh lock, so they never interleave with a refresh.
+   * Readers never wait for it.
+   */
+  private void updateState(PartState newState) {
+    if (pendingState != null) {
+      pendingState = newState;
+    } else {
+      state = newState;
+    }
+  }
+
+  public String getId() {
+    PartState s = getState();
+    String value = s.getId();
     if (value == null) {
+      PartUsage sourcePartUsage = s.getSourcePartUsage();
       if (sourcePartUsage != null && sourcePartUsage.getPart().isResolved()) {
         value = sourcePartUsage.getPart().getId();
       }
     }
-    if (value == null && getRefreshException() != null) {
+    if (value == null && s.getRefreshException() != null) {
       value = "ERROR";
     }
     return value;
   }
 
-  public synchronized Part setId(String id) {
-    this.id = id;
+  public Part setId(String id) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withId(id));
+    }
+    finally {
+      refreshLock.unlock();
+    }
     return this;
   }
 
@@ -95,31 +148,70 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return url;
   }
 
-  public synchronized Part setUrl(URL url) {
+  public Part setUrl(URL url) {
     this.url = normalizeUrl(url);
+    this.key = null;
     return this;
   }
 
+  /**
+   * @return canonical key of the part url, used for ordering without building url strings
+   */
+  public PartKey getKey() {
+    PartKey partKey = key;
+    if (partKey == null) {
+      partKey = PartKey.of(url);
+      key = partKey;
+    }
+    return partKey;
+  }
+
   public URL normalizeUrl(URL url) {
     return url;
   }
 
-  public synchronized URL getSourceUrl() {
+  public URL getSourceUrl() {
+    PartUsage sourcePartUsage = getState().getSourcePartUsage();
     if (sourcePartUsage == null) {
       return url;
     }
     return sourcePartUsage.getPart().getUrl();
   }
 
-  public synchronized double getPackageCost() {
+  /**
+   * The package cost of an assembly is rolled up from its sub-parts once and memoized
+   * until a change to this part or one of its sub-parts invalidates it.
+   */
+  public double getPackageCost() {
+    Double cost = packageCostRollup;
+    if (cost == null) {
+      long version = rollupVersion;
+      cost = computePackageCost();
+      packageCostRollup = cost;
+      if (rollupVersion != version) {
+        packageCostRollup = null; // invalidated while computing
+      }
+    }
+    return cost;
+  }
+
+  private double computePackageCost() {
+    PartState s = getState();
+    PartUsage sourcePartUsage = s.getSourcePartUsage();
+    Double packageCost = s.getPackageCost();
+    String id = s.getId();
     double cost = 0;
 
     if (packageCost == null) {
-      if (sourcePartUsage != null && sourcePartUsage.getPart().isResolved()) {
-        cost = sourcePartUsage.getCost();
-        logger.debug("packageCost {} += {}", id, cost);
+      if (sourcePartUsage != null) {
+        sourcePartUsage.getPart().addParent(this);
+        if (sourcePartUsage.getPart().isResolved()) {
+          cost = sourcePartUsage.getCost();
+          logger.debug("packageCost {} += {}", id, cost);
+        }
       }
-      for (PartUsage partUsage : requiredParts) {
+      for (PartUsage partUsage : s.getRequiredParts()) {
+        partUsage.getPart().addParent(this);
         double partCost = partUsage.getQuantity() * partUsage.getPart().getUnitCost();
         logger.debug("packageCost {} += {} {}", new Object[]{id, partUsage.getPart().getId(), partCost});
         cost += partCost;
@@ -131,15 +223,64 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return cost;
   }
 
-  public synchronized Part setPackageCost(Double packageCost) {
-    this.packageCost = packageCost;
+  private void addParent(Part parent) {
+    Set<Part> set = parents;
+    if (set == null) {
+      synchronized (this) {
+        if (parents == null) {
+          parents = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<Part, Boolean>()));
+        }
+        set = parents;
+      }
+    }
+    set.add(parent);
+  }
+
+  private void removeParent(Part parent) {
+    Set<Part> set = parents;
+    if (set != null) {
+      set.remove(parent);
+    }
+  }
+
+  /**
+   * Discard the memoized rollups of this part and of every assembly that uses it.
+   */
+  protected void invalidateRollups() {
+    Set<Part> visited = Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>());
+    List<Part> stack = new ArrayList<Part>();
+    stack.add(this);
+    while (!stack.isEmpty()) {
+      Part part = stack.remove(stack.size() - 1);
+      if (visited.add(part)) {
+        part.rollupVersion++;
+        part.packageCostRollup = null;
+        Set<Part> set = part.parents;
+        if (set != null) {
+          stack.addAll(set); // copies the live parents under the set's lock
+        }
+      }
+    }
+  }
+
+  public Part setPackageCost(Double packageCost) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withPackageCost(packageCost));
+    }
+    finally {
+      refreshLock.unlock();
+    }
+    invalidateRollups();
     return this;
   }
 
-  public synchronized double getPackageUnits() {
+  public double getPackageUnits() {
+    PartState s = getState();
+    Double packageUnits = s.getPackageUnits();
     double units = 1;
     if (packageUnits == null) {
-      if (sourcePartUsage != null) {
+      if (s.getSourcePartUsage() != null) {
         units = 1; // this part is abstract, so package units is always 1
       }
     } else {
@@ -148,15 +289,22 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return units;
   }
 
-  public synchronized Part setPackageUnits(Double packageUnits) {
+  public Part setPackageUnits(Double packageUnits) {
     if (packageUnits != null && packageUnits <= 0) {
       throw new IllegalArgumentException("package units cannot be zero or negative: " + packageUnits);
     }
-    this.packageUnits = packageUnits;
+    refreshLock.lock();
+    try {
+      updateState(getState().withPackageUnits(packageUnits));
+    }
+    finally {
+      refreshLock.unlock();
+    }
+    invalidateRollups();
     return this;
   }
 
-  public synchronized double getUnitCost() {
+  public double getUnitCost() {
     return getPackageCost() / getPackageUnits();
   }
 
@@ -171,7 +319,7 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
   }
 
   protected URL parseLink(String value) throws MalformedURLException {
-    String urlString = PartFactory.getInstance().scrapeText(value, startLink, endLink);
+    String urlString = PartFactory.scrapeText(value, startLink, endLink);
     try {
       return new URL(getUrl(), urlString);
     }
@@ -204,11 +352,13 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return result;
   }
 
-  public synchronized String getTitle() {
-    String value = title;
+  public String getTitle() {
+    PartState s = getState();
+    PartUsage sourcePartUsage = s.getSourcePartUsage();
+    String value = s.getTitle();
     if (value == null) {
-      if (getRefreshException() != null) {
-        value = getRefreshException().getMessage();
+      if (s.getRefreshException() != null) {
+        value = s.getRefreshException().getMessage();
       } else if (sourcePartUsage != null && sourcePartUsage.getPart().isResolved()) {
         value = sourcePartUsage.getPart().getTitle();
       } else {
@@ -218,8 +368,14 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return value;
   }
 
-  public synchronized Part setTitle(String title) {
-    this.title = title == null ? null : title.trim();
+  public Part setTitle(String title) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withTitle(title == null ? null : title.trim()));
+    }
+    finally {
+      refreshLock.unlock();
+    }
     return this;
   }
 
@@ -230,14 +386,13 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
 
   @Override
   public int compareTo(IPartComparable that) {
-    Part thatPart = that.getPart();
-    URL url1 = getUrl();
-    URL url2 = thatPart.getUrl();
-    int cmp = url1.toString().compareTo(url2.toString());
-    return cmp;
+    return getKey().compareTo(that.getPart().getKey());
   }
 
-  public synchronized String getVendor() {
+  public String getVendor() {
+    PartState s = getState();
+    PartUsage sourcePartUsage = s.getSourcePartUsage();
+    String vendor = s.getVendor();
     if (vendor == null) {
       if (sourcePartUsage != null && sourcePartUsage.getPart().isResolved()) {
         return sourcePartUsage.getVendor();
@@ -248,21 +403,60 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     return vendor;
   }
 
-  public synchronized Part setVendor(String vendor) {
-    this.vendor = vendor;
+  public Part setVendor(String vendor) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withVendor(vendor));
+    }
+    finally {
+      refreshLock.unlock();
+    }
     return this;
   }
 
-  public synchronized List<PartUsage> getRequiredParts() {
-    return Collections.unmodifiableList(requiredParts);
+  public List<PartUsage> getRequiredParts() {
+    return getState().getRequiredParts();
+  }
+
+  protected Part setRequiredParts(List<PartUsage> requiredParts) {
+    refreshLock.lock();
+    try {
+      setUsages(getState().getSourcePartUsage(), requiredParts);
+    }
+    finally {
+      refreshLock.unlock();
+    }
+    return this;
   }
 
-  public synchronized String getProject() {
+  public String getProject() {
+    String project = getState().getProject();
     return project == null ? getVendor() : project;
   }
 
-  public synchronized Part setProject(String project) {
-    this.project = project;
+  public Part setProject(String project) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withProject(project));
+    }
+    finally {
+      refreshLock.unlock();
+    }
+    return this;
+  }
+
+  protected List<String> getSourceList() {
+    return getState().getSourceList();
+  }
+
+  protected Part setSourceList(List<String> sourceList) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withSourceList(sourceList));
+    }
+    finally {
+      refreshLock.unlock();
+    }
     return this;
   }
 
@@ -273,11 +467,12 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
    * @return true if this is an assembly
    */
   public boolean isAssembly() {
-    return requiredParts.size() > 0;
+    return getState().getRequiredParts().size() > 0;
   }
 
   public boolean isVendorPart() {
-    return sourcePartUsage == null && requiredParts.size() == 0;
+    PartState s = getState();
+    return s.getSourcePartUsage() == null && s.getRequiredParts().size() == 0;
   }
 
   /**
@@ -287,28 +482,45 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
    * @return
    */
   public boolean isAbstractPart() {
-    return sourcePartUsage != null;
+    return getState().getSourcePartUsage() != null;
   }
 
   @Override
   public final void refresh() {
-    if (isFresh() && getAge() < getMinRefeshInterval() && getRefreshException() == null) {
+    // a refresh may start its latency early, so that its content is not newer than the minimum interval allows
+    if (isFresh() && getAge() < getMinRefeshInterval() - refreshLatency && getRefreshException() == null) {
+      synchronized (this) {
+        prefetchedContent = null; // nobody will read it
+      }
       return; // avoid busy work
     }
-    synchronized (refreshLock) {
+    try {
+      refreshLock.lock();
       try {
+        pendingState = state;
         long msStart = System.currentTimeMillis();
         setRefreshException(null);
         refreshFromRemote();
         long msElapsed = System.currentTimeMillis() - msStart;
-        validate(this, null);
-        isResolved = true;
-        logger.info("refreshed {} {} {}x{} {} {}ms", new Object[]{id, packageCost, packageUnits, title, url, msElapsed});
+        refreshLatency = msElapsed;
+        PartState s = pendingState.withResolved(true);
+        pendingState = s;
+        logger.info("refreshed {} {} {}x{} {} {}ms",
+          new Object[]{s.getId(), s.getPackageCost(), s.getPackageUnits(), s.getTitle(), url, msElapsed});
         refreshableTimer.refresh();
       }
       catch (Exception e) {
         throw createRefreshException(e);
       }
+      finally {
+        state = pendingState; // publish
+        pendingState = null;
+        refreshLock.unlock();
+      }
+    }
+    finally {
+      invalidateRollups();
+      getPartFactory().partRefreshed(this);
     }
   }
 
@@ -324,47 +536,112 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
     }
 
     // The refresh exception may be temporary, so the proxy is treated as "fresh and resolved with error"
-    isResolved = true;
-    sourceList = null;
-    sourcePartUsage = null;
-    requiredParts.clear();
+    updateState(getState().withResolved(true).withContentHash(null).withSourceList(null));
+    setUsages(null, new ArrayList<PartUsage>());
     refreshableTimer.refresh();
 
     return getRefreshException();
   }
 
+  /**
+   * Refresh this part and every part it uses, each distinct part once, with independent sub-parts in parallel.
+   */
   public Part refreshAll() {
-    refresh();
-    for (PartUsage partUsage : requiredParts) {
-      Part part = partUsage.getPart();
-      part.refreshAll();
-    }
-    if (sourcePartUsage != null) {
-      sourcePartUsage.getPart().refresh();
+    return getPartFactory().getTreeRefresher().refreshAll(this);
+  }
+
+  protected void refreshFromRemote() throws Exception {
+    UrlContent urlContent = takeRemoteContent();
+    PartState s = getState();
+    if (isContentSelfContained() && s.isResolved() && urlContent.getContentHash().equals(s.getContentHash())) {
+      logger.debug("unchanged content {}", url);
+      return; // nothing to parse
     }
-    refresh();
+    refreshFromRemoteContent(urlContent.getContent());
+    updateState(getState().withContentHash(urlContent.getContentHash()));
+  }
+
+  /**
+   * Parts that read some of their data from urls other than their own page return false,
+   * since their data may change while their page stays the same.
+   *
+   * @return true if an unchanged page means unchanged part data
+   */
+  protected boolean isContentSelfContained() {
+    return true;
+  }
 
+  /**
+   * Start fetching the remote content of a stale part in the background.
+   * A subsequent refresh() will use the prefetched content instead of blocking on its own fetch.
+   *
+   * @return this part
+   */
+  public synchronized Part prefetch() {
+    if (prefetchedContent == null && isPrefetchable() && !isFresh()) {
+      prefetchMillis = System.currentTimeMillis();
+      prefetchedContent = getPartFactory().urlContentAsync(getUrl(), getContentScraper());
+    }
     return this;
   }
 
-  private void validate(Part part, Part rootPart) {
-    if (part == rootPart) {
-      rootPart.setRefreshException(new CyclicReferenceException("Cyclic part reference detected: " + url));
-      throw getRefreshException();
-    } else if (rootPart == null) {
-      rootPart = part;
+  /**
+   * Parts that fetch their content in their own refreshFromRemote() rather than with takeRemoteContent()
+   * return false, so that prefetch() does not fetch a page that is never read.
+   */
+  protected boolean isPrefetchable() {
+    return true;
+  }
+
+  /**
+   * Prefetched content is used if the prefetch started within the resolver's freshness window.
+   * Older prefetches are dropped in favor of a normal fetch, which revalidates the content.
+   */
+  protected UrlContent takeRemoteContent() throws Exception {
+    Future<UrlContent> future;
+    synchronized (this) {
+      future = prefetchedContent;
+      prefetchedContent = null;
+      long freshMillis = getPartFactory().getUrlResolver().getFreshMillis();
+      if (future != null && System.currentTimeMillis() - prefetchMillis > freshMillis) {
+        future = null;
+      }
     }
-    if (part.sourcePartUsage != null) {
-      validate(part.sourcePartUsage.getPart(), rootPart);
+    if (future == null) {
+      return getPartFactory().urlContent(getUrl(), getContentScraper());
     }
-    for (PartUsage partUsage : part.requiredParts) {
-      validate(partUsage.getPart(), rootPart);
+    try {
+      return future.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw new ProxyResolutionException(getUrl().toString(), e);
     }
   }
 
-  protected void refreshFromRemote() throws Exception {
-    String content = PartFactory.getInstance().urlTextContent(getUrl());
-    refreshFromRemoteContent(content);
+  private ContentScraper getContentScraper() {
+    return isStreamingScrape ? createContentScraper() : null;
+  }
+
+  public boolean isStreamingScrape() {
+    return isStreamingScrape;
+  }
+
+  public Part setStreamingScrape(boolean isStreamingScrape) {
+    this.isStreamingScrape = isStreamingScrape;
+    return this;
+  }
+
+  /**
+   * Parts that only scrape a few fields from their page can return a scraper for those fields
+   * so that the page is read only until all of them have been found.
+   *
+   * @return new scraper for each fetch or null to read the entire page
+   */
+  protected ContentScraper createContentScraper() {
+    return null;
   }
 
   protected void refreshFromRemoteContent(String content) throws Exception {
@@ -372,7 +649,7 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
   }
 
   @Override
-  public synchronized boolean isFresh() {
+  public boolean isFresh() {
     return refreshableTimer.isFresh();
   }
 
@@ -382,11 +659,13 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
       return false;
     }
     if (deep) {
+      PartState s = getState();
+      PartUsage sourcePartUsage = s.getSourcePartUsage();
       if (sourcePartUsage != null && !sourcePartUsage.getPart().isFresh()) {
         logger.info("stale2 {}", sourcePartUsage.getPart().getUrl());
         return false;
       }
-      for (PartUsage partUsage : requiredParts) {
+      for (PartUsage partUsage : s.getRequiredParts()) {
         Part part = partUsage.getPart();
         if (!part.isFresh()) {
           logger.info("stale3 {}", part.getUrl());
@@ -399,45 +678,107 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
   }
 
   @Override
-  public synchronized void sample() {
+  public void sample() {
     refreshableTimer.sample();
   }
 
-  public synchronized long getRefreshInterval() {
+  public long getRefreshInterval() {
     return refreshableTimer.getRefreshInterval();
   }
 
-  public synchronized long getAge() {
+  public long getSampleInterval() {
+    return refreshableTimer.getSampleInterval();
+  }
+
+  public long getLastSampleMillis() {
+    return refreshableTimer.getLastSampleMillis();
+  }
+
+  public long getRefreshDueMillis() {
+    return refreshableTimer.getDueMillis();
+  }
+
+  public long getAge() {
     return refreshableTimer.getAge();
   }
 
+  /**
+   * @return duration of the last successful refresh
+   */
+  public long getRefreshLatency() {
+    return refreshLatency;
+  }
+
   @Override
   public String toString() {
     return getId() + " " + getUrl().toString();
   }
 
   public Part getSourcePart() {
+    PartUsage sourcePartUsage = getState().getSourcePartUsage();
     if (sourcePartUsage == null) {
       return null;
     }
     return sourcePartUsage.getPart();
   }
 
-  public synchronized PartUsage getSourcePartUsage() {
-    return sourcePartUsage;
+  public PartUsage getSourcePartUsage() {
+    return getState().getSourcePartUsage();
   }
 
-  public synchronized Part setSourcePartUsage(PartUsage sourcePartUsage) {
-    this.sourcePartUsage = sourcePartUsage;
+  public Part setSourcePartUsage(PartUsage sourcePartUsage) {
+    refreshLock.lock();
+    try {
+      setUsages(sourcePartUsage, getState().getRequiredParts());
+    }
+    finally {
+      refreshLock.unlock();
+    }
     return this;
   }
 
+  /**
+   * Replace the source and required edges of this part. The factory's part graph order checks the new edges
+   * before they become visible, so a cyclic reference leaves this part unchanged.
+   *
+   * @throws CyclicReferenceException if this part would use itself
+   */
+  private void setUsages(PartUsage sourcePartUsage, List<PartUsage> requiredParts) {
+    List<PartUsage> oldRequiredParts;
+    PartUsage oldSourcePartUsage;
+    refreshLock.lock();
+    try {
+      PartState s = getState();
+      oldSourcePartUsage = s.getSourcePartUsage();
+      oldRequiredParts = s.getRequiredParts();
+      PartState newState = s.withSourcePartUsage(sourcePartUsage).withRequiredParts(requiredParts);
+      getPartFactory().getGraphOrder().setEdges(this, newState.getSubParts());
+      updateState(newState);
+    }
+    finally {
+      refreshLock.unlock();
+    }
+    if (oldSourcePartUsage != null) {
+      oldSourcePartUsage.getPart().removeParent(this);
+    }
+    for (PartUsage partUsage : oldRequiredParts) {
+      partUsage.getPart().removeParent(this);
+    }
+    invalidateRollups();
+  }
+
   public RuntimeException getRefreshException() {
-    return refreshException;
+    return getState().getRefreshException();
   }
 
   public void setRefreshException(RuntimeException refreshException) {
-    this.refreshException = refreshException;
+    refreshLock.lock();
+    try {
+      updateState(getState().withRefreshException(refreshException));
+    }
+    finally {
+      refreshLock.unlock();
+    }
   }
 
   public long getMinRefeshInterval() {
@@ -449,18 +790,131 @@ public class Part implements IPartComparable, Serializable, IRefreshableProxy {
   }
 
   public boolean isResolved() {
-    return isResolved;
+    return getState().isResolved();
   }
 
   public String getContentHash() {
-    return contentHash;
+    return getState().getContentHash();
   }
 
   public String getTitleCategory() {
-    return titleCategory;
+    return getState().getTitleCategory();
+  }
+
+  public void setTitleCategory(String titleCategory) {
+    refreshLock.lock();
+    try {
+      updateState(getState().withTitleCategory(titleCategory == null ? null : titleCategory.trim()));
+    }
+    finally {
+      refreshLock.unlock();
+    }
+  }
+
+  /**
+   * @return last published state, without any refresh in progress
+   */
+  PartState getPublishedState() {
+    return state;
+  }
+
+  void writeSnapshot(PartGraphSnapshot snapshot, PartState s) throws IOException {
+    DataOutputStream output = snapshot.getOutput();
+    RuntimeException refreshException = s.getRefreshException();
+    List<String> sourceList = s.getSourceList();
+    snapshot.writeString(s.getId());
+    snapshot.writeString(s.getTitle());
+    snapshot.writeString(s.getTitleCategory());
+    snapshot.writeString(s.getVendor());
+    snapshot.writeString(s.getProject());
+    snapshot.writeString(s.getContentHash());
+    snapshot.writeDouble(s.getPackageCost());
+    snapshot.writeDouble(s.getPackageUnits());
+    snapshot.writeString(refreshException == null ? null : refreshException.getMessage());
+    snapshot.writeString(refreshException == null ? null : refreshException.getClass().getName());
+    output.writeBoolean(s.isResolved());
+    output.writeLong(refreshableTimer.getMinRefreshInterval());
+    output.writeBoolean(refreshableTimer.isResolved());
+    output.writeLong(refreshableTimer.getLastRefreshMillis());
+    output.writeLong(refreshableTimer.getLastSampleMillis());
+    output.writeLong(refreshableTimer.getSampleInterval());
+    output.writeLong(refreshableTimer.getSamplesSinceRefresh());
+    output.writeInt(sourceList == null ? -1 : sourceList.size());
+    if (sourceList != null) {
+      for (String source : sourceList) {
+        snapshot.writeString(source);
+      }
+    }
+  }
+
+  /**
+   * Read the state written by writeSnapshot().
+   *
+   * @param isRestored false to skip the state of a part that is already resolved
+   */
+  void readSnapshot(PartGraphSnapshot snapshot, boolean isRestored) throws IOException {
+    DataInputStream input = snapshot.getInput();
+    String id = snapshot.readString();
+    String title = snapshot.readString();
+    String titleCategory = snapshot.readString();
+    String vendor = snapshot.readString();
+    String project = snapshot.readString();
+    String contentHash = snapshot.readString();
+    Double packageCost = snapshot.readDouble();
+    Double packageUnits = snapshot.readDouble();
+    String refreshMessage = snapshot.readString();
+    String refreshExceptionType = snapshot.getVersion() < 2 ? null : snapshot.readString();
+    boolean isResolved = input.readBoolean();
+    long minRefreshInterval = input.readLong();
+    boolean isTimerResolved = input.readBoolean();
+    long lastRefreshMillis = input.readLong();
+    long lastSampleMillis = input.readLong();
+    long sampleInterval = input.readLong();
+    long samplesSinceRefresh = input.readLong();
+    int sourceCount = input.readInt();
+    List<String> sourceList = sourceCount < 0 ? null : new ArrayList<String>(sourceCount);
+    for (int i = 0; i < sourceCount; i++) {
+      sourceList.add(snapshot.readString());
+    }
+    if (isRestored) {
+      RuntimeException refreshException = refreshMessage == null ? null :
+        restoreRefreshException(refreshExceptionType, refreshMessage);
+      refreshLock.lock();
+      try {
+        updateState(getState().withId(id).withTitle(title).withTitleCategory(titleCategory).withVendor(vendor)
+          .withProject(project).withContentHash(contentHash).withPackageCost(packageCost).withPackageUnits(packageUnits)
+          .withRefreshException(refreshException).withResolved(isResolved).withSourceList(sourceList));
+      }
+      finally {
+        refreshLock.unlock();
+      }
+      refreshableTimer.setMinRefreshInterval(minRefreshInterval);
+      refreshableTimer.restore(isTimerResolved, lastRefreshMillis, lastSampleMillis, sampleInterval, samplesSinceRefresh);
+      invalidateRollups();
+    }
+  }
+
+  /**
+   * Only refresh exception types are instantiated. Other classes named by a snapshot are not even initialized.
+   *
+   * @return refresh exception of the given type, or a ProxyResolutionException if the type cannot be restored
+   */
+  private static RuntimeException restoreRefreshException(String type, String message) {
+    if (type != null) {
+      try {
+        Class<?> exceptionClass = Class.forName(type, false, Part.class.getClassLoader());
+        if (ProxyResolutionException.class.isAssignableFrom(exceptionClass)) {
+          return (RuntimeException) exceptionClass.getConstructor(String.class).newInstance(message);
+        }
+      }
+      catch (Exception e) {
+        logger.debug("Could not restore {}", type, e);
+      }
+    }
+    return new ProxyResolutionException(message);
   }
 
-  public synchronized  void setTitleCategory(String titleCategory) {
-    this.titleCategory = titleCategory==null ? null : titleCategory.trim();
+  void restoreUsages(PartUsage sourcePartUsage, List<PartUsage> requiredParts) {
+    setUsages(sourcePartUsage, requiredParts);
   }
 }
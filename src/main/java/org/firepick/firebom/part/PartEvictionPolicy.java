@@ -0,0 +1,326 @@
+package org.firepick.firebom.part;
+/*
+   PartEvictionPolicy.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import net.sf.ehcache.Element;
+import net.sf.ehcache.store.Policy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Part cache eviction that knows the part graphs of active BOMs.
+ * Parts reachable from a recently used BOM root are pinned in memory, since evicting a shared
+ * sub-part that a live BOM still references would make createPart() build and re-fetch a second copy.
+ * Among the sampled candidates, unpinned parts with the smallest subtree are evicted first,
+ * then the least recently used.
+ * The pinned part graphs are recomputed in the background after they change, so eviction
+ * only ever reads the last published weights.
+ */
+public class PartEvictionPolicy implements Policy {
+  public static final String NAME = "PartGraph";
+  public static final long DEFAULT_ROOT_EXPIRY = 3600000;
+  public static final int DEFAULT_MAX_ROOTS = 1000;
+  public static final long DEFAULT_REACHABILITY_INTERVAL = 1000;
+
+  private final LinkedHashMap<Part, Long> roots = new LinkedHashMap<Part, Long>(16, 0.75f, true);
+  private volatile Map<Object, Integer> pinnedWeights = Collections.emptyMap();
+  private boolean isScheduled; // guarded by roots
+  private boolean isComputing; // guarded by roots
+  private long lastReachabilityMillis; // guarded by roots
+  private ScheduledExecutorService executor;
+  private long rootExpiry = DEFAULT_ROOT_EXPIRY;
+  private int maxRoots = DEFAULT_MAX_ROOTS;
+  private long reachabilityInterval = DEFAULT_REACHABILITY_INTERVAL;
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  /**
+   * Mark the root part of a BOM as used now. Its part graph stays pinned until the root expires.
+   */
+  public void touchRoot(Part root) {
+    synchronized (roots) {
+      roots.put(root, System.currentTimeMillis());
+      while (roots.size() > maxRoots) {
+        Iterator<Part> iterator = roots.keySet().iterator();
+        iterator.next();
+        iterator.remove();
+      }
+    }
+    invalidate();
+  }
+
+  /**
+   * Part graphs change when parts are refreshed.
+   */
+  public void invalidate() {
+    synchronized (roots) {
+      if (isScheduled || roots.isEmpty() && pinnedWeights.isEmpty()) {
+        return;
+      }
+      isScheduled = true;
+      long delay = Math.max(0, lastReachabilityMillis + reachabilityInterval - System.currentTimeMillis());
+      getExecutor().schedule(new Runnable() {
+        @Override
+        public void run() {
+          recompute();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void recompute() {
+    List<Part> rootList;
+    synchronized (roots) {
+      isScheduled = false;
+      isComputing = true;
+      lastReachabilityMillis = System.currentTimeMillis();
+      Iterator<Map.Entry<Part, Long>> iterator = roots.entrySet().iterator();
+      while (iterator.hasNext()) {
+        if (lastReachabilityMillis - iterator.next().getValue() > rootExpiry) {
+          iterator.remove();
+        }
+      }
+      rootList = new ArrayList<Part>(roots.keySet());
+    }
+    try {
+      pinnedWeights = computePinnedWeights(rootList);
+    }
+    finally {
+      synchronized (roots) {
+        isComputing = false;
+        roots.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait until pending changes of the part graphs are reflected by the pinned parts.
+   *
+   * @return true if the pinned parts are up to date
+   */
+  public boolean drain(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (roots) {
+      while (isScheduled || isComputing) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          return false;
+        }
+        roots.wait(wait);
+      }
+    }
+    return true;
+  }
+
+  private synchronized ScheduledExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "PartEvictionPolicy");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Stop recomputing the pinned parts. Later changes restart the recomputation.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+    synchronized (roots) {
+      isScheduled = false;
+      roots.notifyAll();
+    }
+  }
+
+  public boolean isPinned(Object key) {
+    return getPinnedWeights().containsKey(key);
+  }
+
+  /**
+   * @return number of parts in the subtree of a pinned part, counting shared sub-parts once per usage
+   */
+  public int getSubtreeSize(Object key) {
+    Integer weight = getPinnedWeights().get(key);
+    return weight == null ? 0 : weight;
+  }
+
+  public int getPinnedCount() {
+    return getPinnedWeights().size();
+  }
+
+  private Map<Object, Integer> getPinnedWeights() {
+    return pinnedWeights;
+  }
+
+  private static Map<Object, Integer> computePinnedWeights(List<Part> rootList) {
+    Map<Part, Integer> weights = new IdentityHashMap<Part, Integer>();
+    for (Part root : rootList) {
+      computeWeights(root, weights);
+    }
+    Map<Object, Integer> result = new HashMap<Object, Integer>(weights.size() * 2);
+    for (Map.Entry<Part, Integer> entry : weights.entrySet()) {
+      result.put(entry.getKey().getKey(), entry.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Weigh the subtree of the root depth first without recursion, since part graphs may be deep.
+   */
+  private static void computeWeights(Part root, Map<Part, Integer> weights) {
+    if (weights.containsKey(root)) {
+      return;
+    }
+    List<SubtreeFrame> stack = new ArrayList<SubtreeFrame>();
+    weights.put(root, 1); // cyclic references count once
+    stack.add(new SubtreeFrame(root));
+    while (!stack.isEmpty()) {
+      SubtreeFrame frame = stack.get(stack.size() - 1);
+      if (frame.next < frame.subParts.size()) {
+        Part subPart = frame.subParts.get(frame.next++);
+        if (!weights.containsKey(subPart)) {
+          weights.put(subPart, 1);
+          stack.add(new SubtreeFrame(subPart));
+        }
+      } else {
+        stack.remove(stack.size() - 1);
+        int sum = 1;
+        for (Part subPart : frame.subParts) {
+          sum += weights.get(subPart);
+        }
+        weights.put(frame.part, sum);
+      }
+    }
+  }
+
+  /**
+   * A part being weighed and its sub-parts, read once from its published state.
+   */
+  private static class SubtreeFrame {
+    private final Part part;
+    private final List<Part> subParts;
+    private int next;
+
+    SubtreeFrame(Part part) {
+      this.part = part;
+      this.subParts = part.getPublishedState().getSubParts();
+    }
+  }
+
+  /**
+   * @return weight of an unpinned part, which is its number of direct sub-parts plus one
+   */
+  private static int getWeight(Element element) {
+    Object value = element.getObjectValue();
+    if (value instanceof Part) {
+      Part part = (Part) value;
+      return 1 + part.getRequiredParts().size() + (part.getSourcePart() == null ? 0 : 1);
+    }
+    return 1;
+  }
+
+  /**
+   * Pinned parts are selected only if every sampled element is pinned, so that the cache
+   * never grows beyond its configured size.
+   */
+  @Override
+  public Element selectedBasedOnPolicy(Element[] sampledElements, Element justAdded) {
+    Element selected = null;
+    for (Element element : sampledElements) {
+      if (element == null || element == justAdded && sampledElements.length > 1) {
+        continue;
+      }
+      if (selected == null || compare(selected, element)) {
+        selected = element;
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * @return true if element2 should be evicted before element1
+   */
+  @Override
+  public boolean compare(Element element1, Element element2) {
+    Map<Object, Integer> pinned = getPinnedWeights();
+    Integer pinned1 = pinned.get(element1.getObjectKey());
+    Integer pinned2 = pinned.get(element2.getObjectKey());
+    if ((pinned1 == null) != (pinned2 == null)) {
+      return pinned2 == null;
+    }
+    int weight1 = pinned1 == null ? getWeight(element1) : pinned1;
+    int weight2 = pinned2 == null ? getWeight(element2) : pinned2;
+    if (weight1 != weight2) {
+      return weight2 < weight1;
+    }
+    return element2.getLastAccessTime() < element1.getLastAccessTime();
+  }
+
+  public long getRootExpiry() {
+    return rootExpiry;
+  }
+
+  public PartEvictionPolicy setRootExpiry(long rootExpiry) {
+    this.rootExpiry = rootExpiry;
+    return this;
+  }
+
+  public int getMaxRoots() {
+    return maxRoots;
+  }
+
+  public PartEvictionPolicy setMaxRoots(int maxRoots) {
+    this.maxRoots = maxRoots;
+    return this;
+  }
+
+  public long getReachabilityInterval() {
+    return reachabilityInterval;
+  }
+
+  /**
+   * @param reachabilityInterval minimum milliseconds between recomputations of the pinned part graphs
+   */
+  public PartEvictionPolicy setReachabilityInterval(long reachabilityInterval) {
+    this.reachabilityInterval = reachabilityInterval;
+    return this;
+  }
+}
@@ -16,26 +16,47 @@ package org.firepick.firebom.part;
    limitations under the License.
  */
 
+import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import org.firepick.firebom.exception.CyclicReferenceException;
 import org.firepick.firebom.exception.ProxyResolutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class PartFactory implements Iterable<Part>, Runnable {
+public class PartFactory implements Iterable<Part> {
   public static long MIN_REFRESH_INTERVAL = 10000;
   private static Logger logger = LoggerFactory.getLogger(PartFactory.class);
-  private static Thread worker;
-  private static ConcurrentLinkedQueue<Part> refreshQueue = new ConcurrentLinkedQueue<Part>();
+  public static final String DEFAULT_PART_CACHE = "org.firepick.firebom.part.Part";
   private static PartFactory partFactory;
+  private final String partCacheName;
+  private final PartRefreshExecutor refreshExecutor = new PartRefreshExecutor();
+  private final RefreshAheadScheduler refreshAheadScheduler = new RefreshAheadScheduler(refreshExecutor);
+  private final PartTreeRefresher treeRefresher = new PartTreeRefresher();
+  private final PartVendorRegistry vendorRegistry = new PartVendorRegistry();
+  private final PartGraphOrder graphOrder = new PartGraphOrder();
+  private final PartIndex partIndex = new PartIndex(graphOrder);
+  private final PartEvictionPolicy evictionPolicy = new PartEvictionPolicy();
+  private final ConcurrentHashMap<PartKey, PartCreation> creatingParts = new ConcurrentHashMap<PartKey, PartCreation>();
+  private final Map<Thread, PartCreation> awaitedCreations = new HashMap<Thread, PartCreation>();
+  private volatile Ehcache indexedCache;
   private CachedUrlResolver urlResolver;
   private String accept;
   private String language;
@@ -49,10 +70,29 @@ public class PartFactory implements Iterable<Part>, Runnable {
   }
 
   protected PartFactory(Locale locale) {
-    this.urlResolver = new CachedUrlResolver(locale);
+    this(DEFAULT_PART_CACHE, locale);
   }
 
-  public static PartFactory getInstance() {
+  /**
+   * Create an isolated factory with its own part cache, refresh queue, refresh threads and vendor registry.
+   * Factories with different cache names share no parts. Part caches not configured in ehcache.xml
+   * are configured like the default part cache.
+   * Each factory's resolver queues its own requests to a vendor host and sends its own vendor cookies.
+   * Url contents fetched by one factory's resolver are never served to another factory.
+   * Only the politeness ceiling of each host is shared, which vendor policies may tighten but not loosen.
+   *
+   * @param partCacheName name of the Ehcache cache holding this factory's parts
+   */
+  public PartFactory(String partCacheName, Locale locale) {
+    this.partCacheName = partCacheName;
+    this.urlResolver = new CachedUrlResolver(locale, DEFAULT_PART_CACHE.equals(partCacheName) ? null : partCacheName);
+    vendorRegistry.setUrlResolver(urlResolver);
+  }
+
+  /**
+   * The default factory for single-tenant use.
+   */
+  public static synchronized PartFactory getInstance() {
     if (partFactory == null) {
       partFactory = new PartFactory();
     }
@@ -94,19 +134,144 @@ public class PartFactory implements Iterable<Part>, Runnable {
   }
 
   public List<Part> getRefreshQueue() {
-    List<Part> list = new ArrayList<Part>();
-    for (Part part : refreshQueue) {
-      list.add(part);
-    }
-    return Collections.unmodifiableList(list);
+    return refreshExecutor.getQueuedParts();
+  }
+
+  public PartRefreshExecutor getRefreshExecutor() {
+    return refreshExecutor;
+  }
+
+  public PartTreeRefresher getTreeRefresher() {
+    return treeRefresher;
+  }
+
+  public String getPartCacheName() {
+    return partCacheName;
+  }
+
+  public CachedUrlResolver getUrlResolver() {
+    return urlResolver;
+  }
+
+  /**
+   * Stop refreshing parts of this factory and stop the fetch threads of its url resolver. Cached parts remain.
+   */
+  public void shutdown() {
+    refreshAheadScheduler.shutdown();
+    refreshExecutor.shutdown();
+    treeRefresher.shutdown();
+    evictionPolicy.shutdown();
+    urlResolver.shutdown();
   }
 
   public String urlTextContent(URL url) throws IOException {
     return urlResolver.get(url);
   }
 
+  public UrlContent urlContent(URL url, ContentScraper scraper) throws IOException {
+    return urlResolver.getContent(url, scraper);
+  }
+
+  public Future<UrlContent> urlContentAsync(URL url, ContentScraper scraper) {
+    return urlResolver.getAsync(url, scraper);
+  }
+
   private Ehcache getCache(String name) {
-    return CacheManager.getInstance().addCacheIfAbsent(name);
+    CacheManager cacheManager = CacheManager.getInstance();
+    Ehcache cache = cacheManager.getEhcache(name);
+    if (cache != null) {
+      return cache;
+    }
+    Ehcache defaultPartCache = name.equals(DEFAULT_PART_CACHE) ? null : cacheManager.getEhcache(DEFAULT_PART_CACHE);
+    if (defaultPartCache == null) {
+      return cacheManager.addCacheIfAbsent(name);
+    }
+    CacheConfiguration configuration = defaultPartCache.getCacheConfiguration().clone();
+    configuration.setName(name);
+    return cacheManager.addCacheIfAbsent(new Cache(configuration));
+  }
+
+  /**
+   * The part index listens to the part cache and the eviction policy is set on it.
+   * Both are rebound whenever the cache manager is restarted and replaces the cache.
+   */
+  private Ehcache getPartCache() {
+    Ehcache cache = getCache(partCacheName);
+    if (cache != indexedCache) {
+      synchronized (this) {
+        if (cache != indexedCache) {
+          partIndex.clear();
+          cache.getCacheEventNotificationService().registerListener(partIndex);
+          if (cache instanceof Cache) {
+            ((Cache) cache).setMemoryStoreEvictionPolicy(evictionPolicy);
+          } else {
+            logger.warn("Part cache {} keeps its own eviction policy", cache.getName());
+          }
+          indexedCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Parts read back from a disk store have lost their transient factory and graph nodes.
+   */
+  private Part bind(Element cacheElement) {
+    if (cacheElement == null) {
+      return null;
+    }
+    Part part = (Part) cacheElement.getObjectValue();
+    if (part != null) {
+      part.bindPartFactory(this);
+      graphOrder.link(part);
+    }
+    return part;
+  }
+
+  /**
+   * Called by parts after every refresh.
+   */
+  void partRefreshed(Part part) {
+    partIndex.update(part);
+    evictionPolicy.invalidate();
+    refreshAheadScheduler.schedule(part);
+  }
+
+  public RefreshAheadScheduler getRefreshAheadScheduler() {
+    return refreshAheadScheduler;
+  }
+
+  public PartEvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * @return topological order of the parts of this factory, used to reject cyclic part references
+   */
+  public PartGraphOrder getGraphOrder() {
+    return graphOrder;
+  }
+
+  public PartIndex getPartIndex() {
+    return partIndex;
+  }
+
+  /**
+   * Find cached parts matching all words of the query in url order.
+   *
+   * @param query words of part ids, titles, vendors or projects, or null for all parts
+   */
+  public List<Part> findParts(String query, int offset, int limit) {
+    Ehcache cache = getPartCache();
+    List<Part> parts = new ArrayList<Part>();
+    for (URL url : partIndex.find(query, offset, limit)) {
+      Element cacheElement = cache.get(PartKey.of(url));
+      if (cacheElement != null) {
+        parts.add(bind(cacheElement));
+      }
+    }
+    return parts;
   }
 
   public Part createPart(URL url) {
@@ -114,86 +279,318 @@ public class PartFactory implements Iterable<Part>, Runnable {
   }
 
   public Part createPart(URL url, CachedUrlResolver urlResolver) {
-    Element cacheElement = getCache("org.firepick.firebom.part.Part").get(url);
+    PartKey key = PartKey.of(url);
+    Element cacheElement = getPartCache().get(key);
     Part part;
     if (cacheElement == null) {
-      String host = url.getHost();
-      part = createPartForHost(url, host, urlResolver);
-      cacheElement = new Element(url, part);
-      getCache("org.firepick.firebom.part.Part").put(cacheElement);
-      refreshQueue.add(part);
+      part = createPartOnce(key, url, urlResolver);
     } else {
-      part = (Part) cacheElement.getObjectValue();
+      part = bind(cacheElement);
       part.sample();
-      if (!part.isFresh() && !refreshQueue.contains(part)) {
-        refreshQueue.add(part);
+      if (!part.isFresh()) {
+        refreshExecutor.submit(part);
       }
     }
-    if (worker == null) {
-      worker = new Thread(this);
-      worker.start();
-    }
+    refreshExecutor.start();
     return part;
   }
 
-  private Part createPartForHost(URL url, String host, CachedUrlResolver urlResolver) {
-    Part part;
-    if ("www.shapeways.com".equalsIgnoreCase(host)) {
-      part = new ShapewaysPart(this, url, urlResolver);
-    } else if ("shpws.me".equalsIgnoreCase(host)) {
-      part = new ShapewaysPart(this, url, urlResolver);
-    } else if ("www.mcmaster.com".equalsIgnoreCase(host)) {
-      part = new McMasterCarrPart(this, url, urlResolver);
-    } else if ("github.com".equalsIgnoreCase(host)) {
-      part = new GitHubPart(this, url, urlResolver);
-    } else if ("us.misumi-ec.com".equalsIgnoreCase(host)) {
-      part = new MisumiPart(this, url, urlResolver);
-    } else if ("www.inventables.com".equalsIgnoreCase(host)) {
-      part = new InventablesPart(this, url, urlResolver);
-    } else if ("www.ponoko.com".equalsIgnoreCase(host)) {
-      part = new PonokoPart(this, url, urlResolver);
-    } else if ("www.amazon.com".equalsIgnoreCase(host)) {
-      part = new AmazonPart(this, url, urlResolver);
-    } else if ("trinitylabs.com".equalsIgnoreCase(host)) {
-      part = new TrinityLabsPart(this, url, urlResolver);
-    } else if ("mock".equalsIgnoreCase(host)) {
-      part = new MockPart(this, url, urlResolver);
-    } else if ("www.sparkfun.com".equalsIgnoreCase(host)) {
-      part = new SparkfunPart(this, url, urlResolver);
-    } else if ("www.adafruit.com".equalsIgnoreCase(host)) {
-      part = new AdafruitPart(this, url, urlResolver);
-    } else if ("www.digikey.com".equalsIgnoreCase(host)) {
-      part = new DigiKeyPart(this, url, urlResolver);
-    } else if ("synthetos.myshopify.com".equalsIgnoreCase(host)) {
-      part = new SynthetosPart(this, url, urlResolver);
-    } else {
-      part = new HtmlPart(this, url, urlResolver);
+  /**
+   * Create the part of a url that is not cached. Concurrent callers for the same url wait for
+   * the first one, so that exactly one part instance exists per url.
+   */
+  private Part createPartOnce(PartKey key, URL url, CachedUrlResolver urlResolver) {
+    PartCreation creation = creatingParts.get(key);
+    if (creation == null) {
+      PartCreation newCreation = new PartCreation(key, url, urlResolver);
+      creation = creatingParts.putIfAbsent(key, newCreation);
+      if (creation == null) {
+        try {
+          Part part = awaitCreation(newCreation);
+          if (newCreation.isCreated()) {
+            getPartCache().put(new Element(key, part));
+            refreshExecutor.submit(part);
+          }
+          return part;
+        }
+        finally {
+          creatingParts.remove(key, newCreation);
+          newCreation.abandon();
+        }
+      }
     }
-    return part;
+    return awaitCreation(creation);
   }
 
-  @Override
-  public ListIterator<Part> iterator() {
-    Ehcache cache = getCache("org.firepick.firebom.part.Part");
-    return new CacheIterator(cache);
+  private Part awaitCreation(PartCreation creation) {
+    URL url = creation.getUrl();
+    creation.runOnThread(); // a creation nobody has started yet is run by the first thread needing it
+    boolean isAwaited = !creation.isDone();
+    if (isAwaited) {
+      startAwaiting(creation);
+    }
+    try {
+      return creation.get();
+    }
+    catch (CancellationException e) {
+      throw new ProxyResolutionException(url + " creation was abandoned", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProxyResolutionException(url.toString(), e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new ProxyResolutionException(url.toString(), e);
+    }
+    finally {
+      if (isAwaited) {
+        stopAwaiting();
+      }
+    }
   }
 
-  @Override
-  public void run() {
-    while (refreshQueue.size() > 0) {
-      Part part = refreshQueue.poll();
-      if (part != null && !part.isFresh()) {
-        try {
-          part.refresh();
+  /**
+   * Record that the current thread waits for a part being created by another thread.
+   * Threads creating parts that use each other's parts would wait for each other forever,
+   * so a wait that would close a cycle of waiting threads fails instead. Only running creations
+   * are waited for, so a part claimed by a batch but not yet started never closes a cycle.
+   */
+  private void startAwaiting(PartCreation creation) {
+    Thread thread = Thread.currentThread();
+    synchronized (awaitedCreations) {
+      PartCreation awaited = creation;
+      while (awaited != null && !awaited.isDone()) {
+        if (awaited.getRunner() == thread) {
+          throw new CyclicReferenceException("Cyclic part reference detected: " + creation.getUrl());
         }
-        catch (Exception e) {
-          if (e != part.getRefreshException()) {
-            throw new ProxyResolutionException("Uncaught exception", e);
-          }
+        awaited = awaitedCreations.get(awaited.getRunner());
+      }
+      awaitedCreations.put(thread, creation);
+    }
+  }
+
+  private void stopAwaiting() {
+    synchronized (awaitedCreations) {
+      awaitedCreations.remove(Thread.currentThread());
+    }
+  }
+
+  public List<Part> createParts(Collection<URL> urls) {
+    return createParts(urls, urlResolver);
+  }
+
+  /**
+   * Create or look up the parts of many urls with one bulk cache read and one bulk cache write.
+   * New and stale parts are queued for refresh as a single batch.
+   * Parts being created by other threads are awaited rather than created again.
+   *
+   * @return parts in the order of the given urls
+   */
+  public List<Part> createParts(Collection<URL> urls, CachedUrlResolver urlResolver) {
+    Ehcache cache = getPartCache();
+    List<PartKey> keys = new ArrayList<PartKey>(urls.size());
+    for (URL url : urls) {
+      keys.add(PartKey.of(url));
+    }
+    Map<Object, Element> cacheElements = cache.getAll(keys);
+    Map<PartKey, Part> partMap = new HashMap<PartKey, Part>();
+    Map<PartKey, PartCreation> claimed = new LinkedHashMap<PartKey, PartCreation>();
+    Map<PartKey, PartCreation> awaited = new HashMap<PartKey, PartCreation>();
+    List<Part> refreshParts = new ArrayList<Part>();
+    Iterator<URL> urlIterator = urls.iterator();
+    for (PartKey key : keys) {
+      URL url = urlIterator.next();
+      if (partMap.containsKey(key) || claimed.containsKey(key) || awaited.containsKey(key)) {
+        continue;
+      }
+      Element cacheElement = cacheElements.get(key);
+      if (cacheElement == null) {
+        PartCreation newCreation = new PartCreation(key, url, urlResolver);
+        PartCreation creation = creatingParts.putIfAbsent(key, newCreation);
+        if (creation == null) {
+          claimed.put(key, newCreation);
+        } else {
+          awaited.put(key, creation);
         }
+      } else {
+        Part part = bind(cacheElement);
+        part.sample();
+        if (!part.isFresh()) {
+          refreshParts.add(part);
+        }
+        partMap.put(key, part);
+      }
+    }
+
+    try {
+      List<Element> newElements = new ArrayList<Element>();
+      for (Map.Entry<PartKey, PartCreation> entry : claimed.entrySet()) {
+        PartCreation creation = entry.getValue();
+        Part part = awaitCreation(creation);
+        if (creation.isCreated()) {
+          newElements.add(new Element(entry.getKey(), part));
+          refreshParts.add(part);
+        }
+        partMap.put(entry.getKey(), part);
+      }
+      if (!newElements.isEmpty()) {
+        cache.putAll(newElements);
       }
     }
-    worker = null;
+    finally {
+      for (Map.Entry<PartKey, PartCreation> entry : claimed.entrySet()) {
+        creatingParts.remove(entry.getKey(), entry.getValue());
+        entry.getValue().abandon(); // release waiters of creations not run after a failure
+      }
+    }
+    for (Map.Entry<PartKey, PartCreation> entry : awaited.entrySet()) {
+      partMap.put(entry.getKey(), awaitCreation(entry.getValue()));
+    }
+
+    refreshExecutor.submitAll(refreshParts);
+    refreshExecutor.start();
+    List<Part> parts = new ArrayList<Part>(urls.size());
+    for (PartKey key : keys) {
+      parts.add(partMap.get(key));
+    }
+    return parts;
+  }
+
+  /**
+   * Creation of the part of one url, shared by all threads asking for it meanwhile.
+   * The part cache is checked again once the creation is claimed, since another thread
+   * may have cached the part between the caller's cache miss and the claim.
+   */
+  private class PartCreation implements Callable<Part> {
+    private final PartKey key;
+    private final URL url;
+    private final CachedUrlResolver urlResolver;
+    private final FutureTask<Part> task = new FutureTask<Part>(this);
+    private final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+    private volatile boolean isCreated;
+
+    PartCreation(PartKey key, URL url, CachedUrlResolver urlResolver) {
+      this.key = key;
+      this.url = url;
+      this.urlResolver = urlResolver;
+    }
+
+    @Override
+    public Part call() {
+      Element cacheElement = getPartCache().get(key);
+      if (cacheElement != null) {
+        return bind(cacheElement);
+      }
+      Part part = createPartForHost(url, url.getHost(), urlResolver);
+      isCreated = true;
+      return part;
+    }
+
+    URL getUrl() {
+      return url;
+    }
+
+    boolean isCreated() {
+      return isCreated;
+    }
+
+    /**
+     * @return thread running the creation, or null if it has not started
+     */
+    Thread getRunner() {
+      return runner.get();
+    }
+
+    boolean isDone() {
+      return task.isDone();
+    }
+
+    /**
+     * Cancel the creation if no thread has started it.
+     */
+    void abandon() {
+      if (runner.compareAndSet(null, Thread.currentThread())) {
+        task.cancel(false);
+      }
+    }
+
+    Part get() throws InterruptedException, ExecutionException {
+      return task.get();
+    }
+
+    /**
+     * Run the creation on the current thread unless another thread has started it.
+     */
+    void runOnThread() {
+      if (runner.compareAndSet(null, Thread.currentThread())) {
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * @return cached part without sampling or refreshing it, or null
+   */
+  Part getCachedPart(URL url) {
+    Element cacheElement = getPartCache().get(PartKey.of(url));
+    return cacheElement == null ? null : bind(cacheElement);
+  }
+
+  /**
+   * Cache resolved parts as they are without refreshing them.
+   */
+  void putParts(Map<PartKey, Part> parts) {
+    List<Element> elements = new ArrayList<Element>(parts.size());
+    for (Map.Entry<PartKey, Part> entry : parts.entrySet()) {
+      elements.add(new Element(entry.getKey(), entry.getValue()));
+    }
+    if (!elements.isEmpty()) {
+      getPartCache().putAll(elements);
+    }
+  }
+
+  /**
+   * Write all cached parts and their sub-parts as a part graph snapshot.
+   *
+   * @return number of parts written
+   */
+  public int exportParts(OutputStream outputStream) throws IOException {
+    return PartGraphSnapshot.write(this, outputStream);
+  }
+
+  /**
+   * Cache the parts of a part graph snapshot written by exportParts() without fetching or parsing their pages.
+   * Imported parts keep their refresh timers, so stale parts are refreshed when next requested.
+   *
+   * @return number of parts in the snapshot
+   */
+  public int importParts(InputStream inputStream) throws IOException {
+    return PartGraphSnapshot.read(inputStream, this).size();
+  }
+
+  Part createPartForHost(URL url, CachedUrlResolver urlResolver) {
+    return createPartForHost(url, url.getHost(), urlResolver);
+  }
+
+  private Part createPartForHost(URL url, String host, CachedUrlResolver urlResolver) {
+    PartVendor vendor = vendorRegistry.getVendor(host);
+    Part part = vendor.createPart(this, url, urlResolver);
+    vendor.getPolicy().applyTo(part);
+    return part;
+  }
+
+  public PartVendorRegistry getVendorRegistry() {
+    return vendorRegistry;
+  }
+
+  @Override
+  public ListIterator<Part> iterator() {
+    Ehcache cache = getPartCache();
+    return new CacheIterator(cache);
   }
 
   public long getMinRefreshInterval() {
@@ -205,8 +602,11 @@ public class PartFactory implements Iterable<Part>, Runnable {
     return this;
   }
 
+  /**
+   * Iterates the cached parts. Parts evicted after the iterator was created are returned as null.
+   */
   public class CacheIterator implements ListIterator<Part> {
-    ListIterator<URL> listIterator;
+    ListIterator<PartKey> listIterator;
     Ehcache ehcache;
 
     public CacheIterator(Ehcache ehcache) {
@@ -221,7 +621,7 @@ public class PartFactory implements Iterable<Part>, Runnable {
 
     @Override
     public Part next() {
-      return (Part) ehcache.get(listIterator.next()).getObjectValue();
+      return bind(ehcache.get(listIterator.next()));
     }
 
     @Override
@@ -231,7 +631,7 @@ public class PartFactory implements Iterable<Part>, Runnable {
 
     @Override
     public Part previous() {
-      return (Part) ehcache.get(listIterator.previous()).getObjectValue();
+      return bind(ehcache.get(listIterator.previous()));
     }
 
     @Override
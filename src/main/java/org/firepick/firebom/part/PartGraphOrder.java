@@ -0,0 +1,256 @@
+package org.firepick.firebom.part;
+/*
+   PartGraphOrder.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.CyclicReferenceException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Topological order of the parts of a factory, maintained online as source and required edges change
+ * (Pearce and Kelly, "A Dynamic Topological Sort Algorithm for Directed Acyclic Graphs").
+ * An assembly always orders before the parts it uses. A new edge that agrees with the order costs O(1),
+ * as does an edge from a part that no other part uses, which simply moves that part to the front.
+ * Otherwise only the parts ordered between its two ends are searched and reordered,
+ * and an edge that would close a cycle is rejected with a CyclicReferenceException.
+ */
+public class PartGraphOrder {
+  private static final Comparator<Part> ORDER_COMPARATOR = new Comparator<Part>() {
+    @Override
+    public int compare(Part part1, Part part2) {
+      int order1 = part1.graphNode.order;
+      int order2 = part2.graphNode.order;
+      return order1 < order2 ? -1 : (order1 == order2 ? 0 : 1);
+    }
+  };
+
+  private int nextOrder;
+  private int firstOrder;
+
+  static class Node {
+    private int order;
+    private final Set<Part> children = Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>());
+    private final Set<Part> parents = Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>());
+
+    private Node(int order) {
+      this.order = order;
+    }
+  }
+
+  private Node getNode(Part part) {
+    Node node = part.graphNode;
+    if (node == null) {
+      node = new Node(nextOrder++);
+      part.graphNode = node;
+    }
+    return node;
+  }
+
+  /**
+   * Replace the outgoing edges of a part. If any new edge would close a cycle, the previous edges are
+   * restored and nothing changes.
+   *
+   * @param children source and required parts of the part
+   * @throws CyclicReferenceException if the part would reach itself
+   */
+  public synchronized void setEdges(Part part, Collection<Part> children) {
+    Node node = getNode(part);
+    List<Part> oldChildren = new ArrayList<Part>(node.children);
+    removeEdges(part);
+    List<Part> added = new ArrayList<Part>();
+    for (Part child : children) {
+      if (node.children.contains(child)) {
+        continue;
+      }
+      if (!addEdge(part, child)) {
+        for (Part addedChild : added) {
+          removeEdge(part, addedChild);
+        }
+        for (Part oldChild : oldChildren) {
+          addEdge(part, oldChild);
+        }
+        throw new CyclicReferenceException("Cyclic part reference detected: " + part.getUrl());
+      }
+      added.add(child);
+    }
+  }
+
+  /**
+   * Rebuild the edges of a part and of its sub-parts that have no node, e.g. parts read back from a disk store.
+   * The edges are taken from the published states, which were acyclic when they were set.
+   */
+  public void link(Part root) {
+    if (root.graphNode != null) {
+      return;
+    }
+    synchronized (this) {
+      if (root.graphNode != null) {
+        return;
+      }
+      List<Part> stack = new ArrayList<Part>();
+      getNode(root);
+      stack.add(root);
+      while (!stack.isEmpty()) {
+        Part part = stack.remove(stack.size() - 1);
+        for (Part child : part.getPublishedState().getSubParts()) {
+          boolean isNew = child.graphNode == null;
+          if (addEdge(part, child) && isNew) {
+            stack.add(child);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Unlink a part that has left the part cache so that its node and edges can be collected.
+   * A part that is used again gets a new node.
+   */
+  public synchronized void remove(Part part) {
+    Node node = part.graphNode;
+    if (node == null) {
+      return;
+    }
+    removeEdges(part);
+    for (Part parent : node.parents) {
+      getNode(parent).children.remove(part);
+    }
+    node.parents.clear();
+    part.graphNode = null;
+  }
+
+  /**
+   * @return true if the first part orders before the second part
+   */
+  public synchronized boolean isBefore(Part part1, Part part2) {
+    return getNode(part1).order < getNode(part2).order;
+  }
+
+  private void removeEdges(Part part) {
+    Node node = getNode(part);
+    for (Part child : node.children) {
+      getNode(child).parents.remove(part);
+    }
+    node.children.clear();
+  }
+
+  private void removeEdge(Part parent, Part child) {
+    getNode(parent).children.remove(child);
+    getNode(child).parents.remove(parent);
+  }
+
+  /**
+   * @return false if the edge would close a cycle
+   */
+  private boolean addEdge(Part parent, Part child) {
+    if (parent == child) {
+      return false;
+    }
+    Node parentNode = getNode(parent);
+    Node childNode = getNode(child);
+    if (childNode.order < parentNode.order && parentNode.parents.isEmpty()) {
+      parentNode.order = --firstOrder; // nothing reaches the parent, so the edge cannot close a cycle
+    } else if (childNode.order < parentNode.order) {
+      int lowerBound = childNode.order;
+      int upperBound = parentNode.order;
+      List<Part> forward = new ArrayList<Part>();
+      if (!searchForward(child, parent, upperBound, forward)) {
+        return false;
+      }
+      List<Part> backward = new ArrayList<Part>();
+      searchBackward(parent, lowerBound, backward);
+      reorder(backward, forward);
+    }
+    parentNode.children.add(child);
+    childNode.parents.add(parent);
+    return true;
+  }
+
+  /**
+   * Collect the parts reachable from start that order no later than upperBound.
+   *
+   * @return false if target is reachable
+   */
+  private boolean searchForward(Part start, Part target, int upperBound, List<Part> visited) {
+    Set<Part> seen = Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>());
+    List<Part> stack = new ArrayList<Part>();
+    stack.add(start);
+    seen.add(start);
+    while (!stack.isEmpty()) {
+      Part part = stack.remove(stack.size() - 1);
+      visited.add(part);
+      for (Part child : getNode(part).children) {
+        if (child == target) {
+          return false;
+        }
+        if (getNode(child).order <= upperBound && seen.add(child)) {
+          stack.add(child);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Collect the parts that reach start and order no earlier than lowerBound.
+   */
+  private void searchBackward(Part start, int lowerBound, List<Part> visited) {
+    Set<Part> seen = Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>());
+    List<Part> stack = new ArrayList<Part>();
+    stack.add(start);
+    seen.add(start);
+    while (!stack.isEmpty()) {
+      Part part = stack.remove(stack.size() - 1);
+      visited.add(part);
+      for (Part parent : getNode(part).parents) {
+        if (getNode(parent).order >= lowerBound && seen.add(parent)) {
+          stack.add(parent);
+        }
+      }
+    }
+  }
+
+  /**
+   * Give the backward parts the lowest of the affected positions and the forward parts the rest,
+   * keeping the relative order within each group.
+   */
+  private void reorder(List<Part> backward, List<Part> forward) {
+    Collections.sort(backward, ORDER_COMPARATOR);
+    Collections.sort(forward, ORDER_COMPARATOR);
+    List<Integer> orders = new ArrayList<Integer>(backward.size() + forward.size());
+    for (Part part : backward) {
+      orders.add(part.graphNode.order);
+    }
+    for (Part part : forward) {
+      orders.add(part.graphNode.order);
+    }
+    Collections.sort(orders);
+    int index = 0;
+    for (Part part : backward) {
+      part.graphNode.order = orders.get(index++);
+    }
+    for (Part part : forward) {
+      part.graphNode.order = orders.get(index++);
+    }
+  }
+}
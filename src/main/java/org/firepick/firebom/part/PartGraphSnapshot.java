@@ -0,0 +1,238 @@
+package org.firepick.firebom.part;
+/*
+   PartGraphSnapshot.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of a resolved part graph for fast cold starts.
+ * Each part is written once and referenced by its index, so sub-parts shared by many
+ * assemblies are shared again after import. Repeated strings such as vendors and hosts
+ * are written once and referenced by index.
+ * Each part's state and its edges are written from a single read of the part, so parts
+ * refreshed meanwhile are still written consistently.
+ */
+public class PartGraphSnapshot {
+  private static Logger logger = LoggerFactory.getLogger(PartGraphSnapshot.class);
+  private static final int MAGIC = 0x46424f4d; // "FBOM"
+  private static final int VERSION = 2; // version 1 had no refresh exception types
+  private static final int NULL = -1;
+
+  private final DataOutputStream output;
+  private final DataInputStream input;
+  private final Map<String, Integer> writtenStrings = new HashMap<String, Integer>();
+  private final List<String> readStrings = new ArrayList<String>();
+  private int version = VERSION;
+
+  private PartGraphSnapshot(DataOutputStream output, DataInputStream input) {
+    this.output = output;
+    this.input = input;
+  }
+
+  /**
+   * Write the given parts and every part reachable from them.
+   *
+   * @return number of parts written
+   */
+  public static int write(Iterable<Part> parts, OutputStream outputStream) throws IOException {
+    Map<Part, Integer> partIndex = new IdentityHashMap<Part, Integer>();
+    List<Part> partList = new ArrayList<Part>();
+    List<PartState> stateList = new ArrayList<PartState>();
+    for (Part part : parts) {
+      collect(part, partIndex, partList, stateList);
+    }
+
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+    PartGraphSnapshot snapshot = new PartGraphSnapshot(output, null);
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(partList.size());
+    for (int i = 0; i < partList.size(); i++) {
+      Part part = partList.get(i);
+      snapshot.writeString(part.getUrl().toString());
+      part.writeSnapshot(snapshot, stateList.get(i));
+    }
+    for (PartState state : stateList) {
+      PartUsage sourcePartUsage = state.getSourcePartUsage();
+      if (sourcePartUsage == null) {
+        output.writeInt(NULL);
+      } else {
+        output.writeInt(partIndex.get(sourcePartUsage.getPart()));
+        output.writeDouble(sourcePartUsage.getQuantity());
+      }
+      List<PartUsage> requiredParts = state.getRequiredParts();
+      output.writeInt(requiredParts.size());
+      for (PartUsage partUsage : requiredParts) {
+        output.writeInt(partIndex.get(partUsage.getPart()));
+        output.writeDouble(partUsage.getQuantity());
+      }
+    }
+    output.flush();
+    logger.info("wrote {} parts", partList.size());
+    return partList.size();
+  }
+
+  private static void collect(Part root, Map<Part, Integer> partIndex, List<Part> partList,
+                              List<PartState> stateList) {
+    List<Part> stack = new ArrayList<Part>();
+    stack.add(root);
+    while (!stack.isEmpty()) {
+      Part part = stack.remove(stack.size() - 1);
+      if (part == null || part.getUrl() == null || partIndex.containsKey(part)) {
+        continue;
+      }
+      PartState state = part.getPublishedState();
+      partIndex.put(part, partList.size());
+      partList.add(part);
+      stateList.add(state);
+      PartUsage sourcePartUsage = state.getSourcePartUsage();
+      if (sourcePartUsage != null) {
+        stack.add(sourcePartUsage.getPart());
+      }
+      for (PartUsage partUsage : state.getRequiredParts()) {
+        stack.add(partUsage.getPart());
+      }
+    }
+  }
+
+  /**
+   * Read a snapshot into the given factory. Parts already known to the factory are kept as they are
+   * and take the place of their snapshot copies in the imported graph.
+   *
+   * @return imported parts in snapshot order
+   */
+  public static List<Part> read(InputStream inputStream, PartFactory partFactory) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+    PartGraphSnapshot snapshot = new PartGraphSnapshot(null, input);
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not a part graph snapshot");
+    }
+    int version = input.readInt();
+    if (version < 1 || version > VERSION) {
+      throw new IOException("Unsupported part graph snapshot version " + version);
+    }
+    snapshot.version = version;
+    int size = input.readInt();
+    List<URL> urls = new ArrayList<URL>(size);
+    Part[] partArray = new Part[size];
+    boolean[] isRestored = new boolean[size];
+    for (int i = 0; i < size; i++) {
+      URL url = new URL(snapshot.readString());
+      Part part = partFactory.getCachedPart(url);
+      isRestored[i] = part == null;
+      if (isRestored[i]) {
+        part = partFactory.createPartForHost(url, partFactory.getUrlResolver());
+      }
+      part.readSnapshot(snapshot, isRestored[i]);
+      urls.add(url);
+      partArray[i] = part;
+    }
+    for (int i = 0; i < size; i++) {
+      int sourceIndex = input.readInt();
+      PartUsage sourcePartUsage = null;
+      if (sourceIndex != NULL) {
+        sourcePartUsage = new PartUsage(partArray[sourceIndex], input.readDouble());
+      }
+      int requiredCount = input.readInt();
+      List<PartUsage> requiredParts = new ArrayList<PartUsage>(requiredCount);
+      for (int j = 0; j < requiredCount; j++) {
+        requiredParts.add(new PartUsage(partArray[input.readInt()], input.readDouble()));
+      }
+      if (isRestored[i]) {
+        partArray[i].restoreUsages(sourcePartUsage, requiredParts);
+      }
+    }
+    Map<PartKey, Part> restoredParts = new HashMap<PartKey, Part>();
+    for (int i = 0; i < size; i++) {
+      if (isRestored[i]) {
+        restoredParts.put(PartKey.of(urls.get(i)), partArray[i]);
+      }
+    }
+    partFactory.putParts(restoredParts);
+    logger.info("read {} parts", size);
+
+    List<Part> parts = new ArrayList<Part>(size);
+    for (Part part : partArray) {
+      parts.add(part);
+    }
+    return parts;
+  }
+
+  void writeString(String value) throws IOException {
+    if (value == null) {
+      output.writeInt(NULL);
+      return;
+    }
+    Integer index = writtenStrings.get(value);
+    if (index == null) {
+      output.writeInt(writtenStrings.size());
+      output.writeUTF(value);
+      writtenStrings.put(value, writtenStrings.size());
+    } else {
+      output.writeInt(index);
+    }
+  }
+
+  String readString() throws IOException {
+    int index = input.readInt();
+    if (index == NULL) {
+      return null;
+    }
+    if (index == readStrings.size()) {
+      readStrings.add(input.readUTF());
+    }
+    return readStrings.get(index);
+  }
+
+  void writeDouble(Double value) throws IOException {
+    output.writeBoolean(value != null);
+    if (value != null) {
+      output.writeDouble(value);
+    }
+  }
+
+  Double readDouble() throws IOException {
+    return input.readBoolean() ? input.readDouble() : null;
+  }
+
+  int getVersion() {
+    return version;
+  }
+
+  DataOutputStream getOutput() {
+    return output;
+  }
+
+  DataInputStream getInput() {
+    return input;
+  }
+}
@@ -0,0 +1,271 @@
+package org.firepick.firebom.part;
+/*
+   PartIndex.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import net.sf.ehcache.CacheException;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.event.CacheEventListener;
+
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index of cached parts by id, title words, vendor and project.
+ * The index listens to the part cache and is updated as parts are cached, refreshed and evicted.
+ * It holds part urls rather than parts so that parts swapped out of the cache stay out of the heap.
+ * Updates are serialized; searches read the concurrent maps without locking.
+ * Parts leaving the cache are also unlinked from the part graph order, if any.
+ */
+public class PartIndex implements CacheEventListener {
+  private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private final ConcurrentSkipListMap<String, URL> urls = new ConcurrentSkipListMap<String, URL>();
+  private final ConcurrentHashMap<String, Set<String>> postings = new ConcurrentHashMap<String, Set<String>>();
+  private final ConcurrentHashMap<String, Set<String>> urlTokens = new ConcurrentHashMap<String, Set<String>>();
+  private final PartGraphOrder graphOrder;
+
+  public PartIndex() {
+    this(null);
+  }
+
+  public PartIndex(PartGraphOrder graphOrder) {
+    this.graphOrder = graphOrder;
+  }
+
+  public static Set<String> tokenize(String text) {
+    Set<String> tokens = new HashSet<String>();
+    if (text != null) {
+      String lowerText = text.toLowerCase(Locale.ENGLISH);
+      for (String token : TOKEN_SEPARATOR.split(lowerText)) {
+        if (token.length() > 0) {
+          tokens.add(token);
+        }
+      }
+    }
+    return tokens;
+  }
+
+  private static Set<String> tokenize(Part part) {
+    Set<String> tokens = tokenize(part.getTitle());
+    String id = part.getId();
+    if (id != null) {
+      tokens.add(id.toLowerCase(Locale.ENGLISH));
+      tokens.addAll(tokenize(id));
+    }
+    String vendor = part.getVendor();
+    if (vendor != null) {
+      tokens.add(vendor.toLowerCase(Locale.ENGLISH));
+      tokens.addAll(tokenize(vendor));
+    }
+    tokens.addAll(tokenize(part.getProject()));
+    return tokens;
+  }
+
+  /**
+   * Index or re-index the given part.
+   */
+  public void add(Part part) {
+    index(part.getUrl(), tokenize(part), false);
+  }
+
+  /**
+   * Re-index a part whose fields may have changed, provided it is still indexed.
+   */
+  public void update(Part part) {
+    if (urlTokens.containsKey(part.getUrl().toString())) {
+      index(part.getUrl(), tokenize(part), true);
+    }
+  }
+
+  /**
+   * Parts are tokenized before taking the index lock so that the index never waits on a part.
+   */
+  private synchronized void index(URL url, Set<String> tokens, boolean isUpdate) {
+    String key = url.toString();
+    if (isUpdate && !urlTokens.containsKey(key)) {
+      return; // removed meanwhile
+    }
+    Set<String> oldTokens = urlTokens.put(key, tokens);
+    if (oldTokens != null) {
+      for (String token : oldTokens) {
+        if (!tokens.contains(token)) {
+          removePosting(token, key);
+        }
+      }
+    }
+    for (String token : tokens) {
+      if (oldTokens == null || !oldTokens.contains(token)) {
+        Set<String> posting = postings.get(token);
+        if (posting == null) {
+          posting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+          postings.put(token, posting);
+        }
+        posting.add(key);
+      }
+    }
+    urls.put(key, url);
+  }
+
+  public synchronized void remove(URL url) {
+    String key = url.toString();
+    Set<String> tokens = urlTokens.remove(key);
+    if (tokens != null) {
+      for (String token : tokens) {
+        removePosting(token, key);
+      }
+    }
+    urls.remove(key);
+  }
+
+  private void removePosting(String token, String key) {
+    Set<String> posting = postings.get(token);
+    if (posting != null) {
+      posting.remove(key);
+      if (posting.isEmpty()) {
+        postings.remove(token);
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    urls.clear();
+    postings.clear();
+    urlTokens.clear();
+  }
+
+  public int size() {
+    return urls.size();
+  }
+
+  /**
+   * Find the urls of parts matching all words of the query in url order.
+   *
+   * @param query  words to match or null/empty for all parts
+   * @param offset number of matches to skip
+   * @param limit  maximum number of matches to return
+   */
+  public List<URL> find(String query, int offset, int limit) {
+    List<URL> result = new ArrayList<URL>();
+    Set<String> queryTokens = tokenize(query);
+    if (queryTokens.isEmpty()) {
+      Iterator<URL> iterator = urls.values().iterator();
+      for (int i = 0; i < offset && iterator.hasNext(); i++) {
+        iterator.next();
+      }
+      while (result.size() < limit && iterator.hasNext()) {
+        result.add(iterator.next());
+      }
+      return result;
+    }
+
+    List<Set<String>> matchingPostings = new ArrayList<Set<String>>();
+    for (String token : queryTokens) {
+      Set<String> posting = postings.get(token);
+      if (posting == null) {
+        return result;
+      }
+      matchingPostings.add(posting);
+    }
+    Collections.sort(matchingPostings, new Comparator<Set<String>>() {
+      @Override
+      public int compare(Set<String> set1, Set<String> set2) {
+        return set1.size() - set2.size();
+      }
+    });
+    TreeSet<String> matches = new TreeSet<String>();
+    for (String key : matchingPostings.get(0)) {
+      boolean isMatch = true;
+      for (int i = 1; isMatch && i < matchingPostings.size(); i++) {
+        isMatch = matchingPostings.get(i).contains(key);
+      }
+      if (isMatch) {
+        matches.add(key);
+      }
+    }
+    int index = 0;
+    for (String key : matches) {
+      if (result.size() >= limit) {
+        break;
+      }
+      if (index++ >= offset) {
+        URL url = urls.get(key);
+        if (url != null) {
+          result.add(url);
+        }
+      }
+    }
+    return result;
+  }
+
+  private void add(Element element) {
+    if (element != null && element.getObjectValue() instanceof Part) {
+      add((Part) element.getObjectValue());
+    }
+  }
+
+  private void remove(Element element) {
+    if (element != null && element.getObjectKey() instanceof PartKey) {
+      remove(((PartKey) element.getObjectKey()).getUrl());
+    }
+    if (graphOrder != null && element != null && element.getObjectValue() instanceof Part) {
+      graphOrder.remove((Part) element.getObjectValue());
+    }
+  }
+
+  @Override
+  public void notifyElementRemoved(Ehcache cache, Element element) throws CacheException {
+    remove(element);
+  }
+
+  @Override
+  public void notifyElementPut(Ehcache cache, Element element) throws CacheException {
+    add(element);
+  }
+
+  @Override
+  public void notifyElementUpdated(Ehcache cache, Element element) throws CacheException {
+    add(element);
+  }
+
+  @Override
+  public void notifyElementExpired(Ehcache cache, Element element) {
+    remove(element);
+  }
+
+  @Override
+  public void notifyElementEvicted(Ehcache cache, Element element) {
+    remove(element);
+  }
+
+  @Override
+  public void notifyRemoveAll(Ehcache cache) {
+    clear();
+  }
+
+  @Override
+  public Object clone() throws CloneNotSupportedException {
+    throw new CloneNotSupportedException();
+  }
+
+  @Override
+  public void dispose() {
+    clear();
+  }
+}
@@ -0,0 +1,141 @@
+package org.firepick.firebom.part;
+/*
+   PartKey.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.io.Serializable;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical, interned cache key of a url.
+ * Unlike java.net.URL, equals() and hashCode() never resolve the host, and the string form
+ * used for ordering is built once. Equal urls share one key instance while it is in use.
+ * Parts keep their key, so only new urls need to be interned.
+ */
+public final class PartKey implements Comparable<PartKey>, Serializable {
+  private static final long serialVersionUID = 2816699804305309272L;
+  private static final ConcurrentHashMap<String, KeyReference> keys = new ConcurrentHashMap<String, KeyReference>();
+  private static final ReferenceQueue<PartKey> unusedKeys = new ReferenceQueue<PartKey>();
+  private final String value;
+  private final URL url;
+  private final int hash;
+
+  private PartKey(String value, URL url) {
+    this.value = value;
+    this.url = url;
+    this.hash = value.hashCode();
+  }
+
+  public static PartKey of(URL url) {
+    return intern(canonicalize(url), url);
+  }
+
+  /**
+   * Host names are case insensitive, so they are lower-cased. The rest of the url is kept as is.
+   * The url is rebuilt from its components, since the host name may also occur in the user info.
+   */
+  static String canonicalize(URL url) {
+    String host = url.getHost();
+    if (host == null || host.length() == 0) {
+      return url.toString();
+    }
+    String lowerHost = host.toLowerCase(Locale.ENGLISH);
+    if (lowerHost.equals(host)) {
+      return url.toString();
+    }
+    StringBuilder sb = new StringBuilder(url.getProtocol()).append("://");
+    if (url.getUserInfo() != null) {
+      sb.append(url.getUserInfo()).append('@');
+    }
+    sb.append(lowerHost);
+    if (url.getPort() != -1) {
+      sb.append(':').append(url.getPort());
+    }
+    sb.append(url.getFile());
+    if (url.getRef() != null) {
+      sb.append('#').append(url.getRef());
+    }
+    return sb.toString();
+  }
+
+  private static PartKey intern(String value, URL url) {
+    expungeUnusedKeys();
+    KeyReference reference = keys.get(value);
+    PartKey key = reference == null ? null : reference.get();
+    while (key == null) {
+      PartKey newKey = new PartKey(value, url);
+      KeyReference newReference = new KeyReference(newKey);
+      boolean isInterned = reference == null ?
+          keys.putIfAbsent(value, newReference) == null : keys.replace(value, reference, newReference);
+      if (isInterned) {
+        return newKey;
+      }
+      reference = keys.get(value);
+      key = reference == null ? null : reference.get();
+    }
+    return key;
+  }
+
+  private static void expungeUnusedKeys() {
+    Reference<? extends PartKey> reference;
+    while ((reference = unusedKeys.poll()) != null) {
+      KeyReference keyReference = (KeyReference) reference;
+      keys.remove(keyReference.value, keyReference);
+    }
+  }
+
+  private static class KeyReference extends WeakReference<PartKey> {
+    private final String value;
+
+    KeyReference(PartKey key) {
+      super(key, unusedKeys);
+      this.value = key.value;
+    }
+  }
+
+  public URL getUrl() {
+    return url;
+  }
+
+  @Override
+  public int compareTo(PartKey that) {
+    return this == that ? 0 : value.compareTo(that.value);
+  }
+
+  @Override
+  public boolean equals(Object that) {
+    return this == that || (that instanceof PartKey && value.equals(((PartKey) that).value));
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return value;
+  }
+
+  private Object readResolve() {
+    return intern(value, url);
+  }
+}
@@ -0,0 +1,378 @@
+package org.firepick.firebom.part;
+/*
+   PartRefreshExecutor.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes stale parts on a fixed number of worker threads.
+ * Unresolved parts are refreshed first, followed by stale parts in order of the time they became stale.
+ * An index of queued parts keeps de-duplication O(1) and enqueueing O(log n).
+ * Workers block on the refresh queue while it is empty, so a part queued at any time is
+ * picked up without polling. Parts count as pending until a worker has finished refreshing them,
+ * which lets drain() wait for all queued refreshes to complete.
+ */
+public class PartRefreshExecutor {
+  public static int DEFAULT_REFRESH_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+  public static long SHUTDOWN_TIMEOUT_MILLIS = 30000;
+  private static Logger logger = LoggerFactory.getLogger(PartRefreshExecutor.class);
+  private final PriorityBlockingQueue<RefreshRequest> refreshQueue = new PriorityBlockingQueue<RefreshRequest>();
+  private final ConcurrentHashMap<Part, RefreshRequest> queuedParts = new ConcurrentHashMap<Part, RefreshRequest>();
+  private final AtomicLong submissions = new AtomicLong();
+  private final AtomicInteger pendingRefreshes = new AtomicInteger();
+  private final AtomicInteger activeRefreshes = new AtomicInteger();
+  private final AtomicLong completedRefreshes = new AtomicLong();
+  private final AtomicLong failedRefreshes = new AtomicLong();
+  private final AtomicLong refreshNanos = new AtomicLong();
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private int refreshThreads;
+  private long startMillis;
+
+  public PartRefreshExecutor() {
+    this(DEFAULT_REFRESH_THREADS);
+  }
+
+  public PartRefreshExecutor(int refreshThreads) {
+    if (refreshThreads <= 0) {
+      throw new IllegalArgumentException("refresh threads must be positive: " + refreshThreads);
+    }
+    this.refreshThreads = refreshThreads;
+  }
+
+  /**
+   * Start the worker threads if they are not already running.
+   */
+  public synchronized PartRefreshExecutor start() {
+    if (workers.isEmpty()) {
+      startMillis = System.currentTimeMillis();
+      for (int i = 0; i < refreshThreads; i++) {
+        Worker worker = new Worker("PartRefreshExecutor-" + (i + 1));
+        workers.add(worker);
+        worker.thread.start();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Queue the given part for refresh unless it is already queued.
+   *
+   * @return true if the part was queued
+   */
+  public boolean submit(Part part) {
+    return submit(new RefreshRequest(part, false, submissions.incrementAndGet()));
+  }
+
+  /**
+   * Queue the given parts for refresh, skipping those already queued.
+   *
+   * @return number of parts queued
+   */
+  public int submitAll(Collection<Part> parts) {
+    int count = 0;
+    for (Part part : parts) {
+      if (submit(part)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Queue a fresh part for refresh ahead of its due time. Such refreshes follow all stale parts.
+   *
+   * @return true if the part was queued
+   */
+  public boolean submitAhead(Part part) {
+    return submit(new RefreshRequest(part, true, submissions.incrementAndGet()));
+  }
+
+  private boolean submit(RefreshRequest request) {
+    Part part = request.part;
+    if (queuedParts.putIfAbsent(part, request) != null) {
+      return false;
+    }
+    pendingRefreshes.incrementAndGet();
+    refreshQueue.add(request);
+    return true;
+  }
+
+  private void refreshLoop(Worker worker) {
+    for (; ; ) {
+      Part part;
+      boolean isRefreshAhead;
+      try {
+        RefreshRequest request = refreshQueue.take();
+        part = request.part;
+        isRefreshAhead = request.isRefreshAhead;
+        queuedParts.remove(part, request);
+      }
+      catch (InterruptedException e) {
+        return; // shutdown
+      }
+      if (!worker.startRefresh()) {
+        refreshDone(); // discarded by shutdown
+        return;
+      }
+      activeRefreshes.incrementAndGet();
+      long startNanos = System.nanoTime();
+      try {
+        if (isRefreshAhead || !part.isFresh()) {
+          part.refresh();
+        }
+      }
+      catch (Exception e) {
+        if (e != part.getRefreshException()) {
+          logger.error("Uncaught exception refreshing {}", part.getUrl(), e);
+        }
+        failedRefreshes.incrementAndGet();
+      }
+      finally {
+        refreshNanos.addAndGet(System.nanoTime() - startNanos);
+        completedRefreshes.incrementAndGet();
+        activeRefreshes.decrementAndGet();
+        refreshDone();
+      }
+      if (!worker.finishRefresh()) {
+        return; // shutdown
+      }
+    }
+  }
+
+  private void refreshDone() {
+    if (pendingRefreshes.decrementAndGet() == 0) {
+      synchronized (pendingRefreshes) {
+        pendingRefreshes.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Wait until all queued parts have been refreshed.
+   *
+   * @return true if the queue was drained within the timeout
+   */
+  public boolean drain(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (pendingRefreshes) {
+      while (pendingRefreshes.get() > 0) {
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          return false;
+        }
+        pendingRefreshes.wait(wait);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stop the worker threads. Idle workers stop at once. Refreshes in progress are never interrupted,
+   * since an interrupted fetch would be recorded as a refresh failure; shutdown waits for them
+   * up to SHUTDOWN_TIMEOUT_MILLIS and leaves any still running to finish on their own.
+   * Queued parts that have not been refreshed are discarded.
+   * The executor may be started again.
+   */
+  public void shutdown() {
+    List<Worker> stoppedWorkers;
+    synchronized (this) {
+      stoppedWorkers = new ArrayList<Worker>(workers);
+      workers.clear();
+    }
+    for (Worker worker : stoppedWorkers) {
+      worker.stop();
+    }
+    long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MILLIS;
+    for (Worker worker : stoppedWorkers) {
+      try {
+        worker.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      if (worker.thread.isAlive()) {
+        logger.warn("{} is still refreshing after shutdown", worker.thread.getName());
+      }
+    }
+    List<RefreshRequest> discarded = new ArrayList<RefreshRequest>();
+    refreshQueue.drainTo(discarded);
+    for (RefreshRequest request : discarded) {
+      queuedParts.remove(request.part, request);
+    }
+    pendingRefreshes.addAndGet(-discarded.size());
+    synchronized (pendingRefreshes) {
+      pendingRefreshes.notifyAll();
+    }
+  }
+
+  public synchronized boolean isRunning() {
+    return !workers.isEmpty();
+  }
+
+  /**
+   * @return queued parts in refresh order
+   */
+  public List<Part> getQueuedParts() {
+    RefreshRequest[] requests = refreshQueue.toArray(new RefreshRequest[0]);
+    Arrays.sort(requests);
+    List<Part> parts = new ArrayList<Part>(requests.length);
+    for (RefreshRequest request : requests) {
+      parts.add(request.part);
+    }
+    return Collections.unmodifiableList(parts);
+  }
+
+  public boolean isQueued(Part part) {
+    return queuedParts.containsKey(part);
+  }
+
+  public int getQueueDepth() {
+    return refreshQueue.size();
+  }
+
+  public int getActiveRefreshes() {
+    return activeRefreshes.get();
+  }
+
+  public long getCompletedRefreshes() {
+    return completedRefreshes.get();
+  }
+
+  public long getFailedRefreshes() {
+    return failedRefreshes.get();
+  }
+
+  public long getAverageRefreshMillis() {
+    long n = completedRefreshes.get();
+    return n == 0 ? 0 : refreshNanos.get() / n / 1000000;
+  }
+
+  /**
+   * @return refreshes completed per second since start()
+   */
+  public synchronized double getThroughput() {
+    long elapsed = System.currentTimeMillis() - startMillis;
+    return startMillis == 0 || elapsed <= 0 ? 0 : completedRefreshes.get() * 1000.0 / elapsed;
+  }
+
+  public synchronized int getRefreshThreads() {
+    return refreshThreads;
+  }
+
+  /**
+   * Change the number of worker threads before start().
+   */
+  public synchronized PartRefreshExecutor setRefreshThreads(int refreshThreads) {
+    if (!workers.isEmpty()) {
+      throw new IllegalStateException("refresh executor is already running");
+    }
+    if (refreshThreads <= 0) {
+      throw new IllegalArgumentException("refresh threads must be positive: " + refreshThreads);
+    }
+    this.refreshThreads = refreshThreads;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return "queued:" + getQueueDepth() +
+        " active:" + getActiveRefreshes() +
+        " completed:" + getCompletedRefreshes() +
+        " failed:" + getFailedRefreshes();
+  }
+
+  /**
+   * A worker is only interrupted while it waits for the queue, never while it refreshes a part.
+   */
+  private class Worker implements Runnable {
+    final Thread thread;
+    private boolean isStopping;
+    private boolean isRefreshing;
+
+    Worker(String name) {
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      refreshLoop(this);
+    }
+
+    synchronized boolean startRefresh() {
+      isRefreshing = !isStopping;
+      return isRefreshing;
+    }
+
+    synchronized boolean finishRefresh() {
+      isRefreshing = false;
+      return !isStopping;
+    }
+
+    synchronized void stop() {
+      isStopping = true;
+      if (!isRefreshing) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Refresh priority is captured on submission so that it stays consistent while queued.
+   */
+  private static class RefreshRequest implements Comparable<RefreshRequest> {
+    final Part part;
+    final boolean isRefreshAhead;
+    final boolean isResolved;
+    final long dueMillis;
+    final long sequence;
+
+    RefreshRequest(Part part, boolean isRefreshAhead, long sequence) {
+      this.part = part;
+      this.isRefreshAhead = isRefreshAhead;
+      this.isResolved = part.isResolved();
+      this.dueMillis = part.getRefreshDueMillis();
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(RefreshRequest that) {
+      if (isRefreshAhead != that.isRefreshAhead) {
+        return isRefreshAhead ? 1 : -1;
+      }
+      if (isResolved != that.isResolved) {
+        return isResolved ? 1 : -1;
+      }
+      if (isResolved && dueMillis != that.dueMillis) {
+        return dueMillis < that.dueMillis ? -1 : 1;
+      }
+      return sequence < that.sequence ? -1 : (sequence == that.sequence ? 0 : 1);
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package org.firepick.firebom.part;
+/*
+   PartState.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the scraped data of a part.
+ * Each with...() method returns a changed copy, so a published state can be read without locking.
+ */
+class PartState implements Serializable {
+  private static final long serialVersionUID = 5364851981842612930L;
+  static final PartState EMPTY = new PartState();
+
+  private String id;
+  private String title;
+  private String titleCategory;
+  private String vendor;
+  private String project;
+  private String contentHash;
+  private Double packageCost;
+  private Double packageUnits;
+  private PartUsage sourcePartUsage;
+  private List<PartUsage> requiredParts = Collections.emptyList();
+  private List<String> sourceList;
+  private RuntimeException refreshException;
+  private boolean isResolved;
+
+  private PartState() {
+  }
+
+  private PartState copy() {
+    PartState state = new PartState();
+    state.id = id;
+    state.title = title;
+    state.titleCategory = titleCategory;
+    state.vendor = vendor;
+    state.project = project;
+    state.contentHash = contentHash;
+    state.packageCost = packageCost;
+    state.packageUnits = packageUnits;
+    state.sourcePartUsage = sourcePartUsage;
+    state.requiredParts = requiredParts;
+    state.sourceList = sourceList;
+    state.refreshException = refreshException;
+    state.isResolved = isResolved;
+    return state;
+  }
+
+  String getId() {
+    return id;
+  }
+
+  PartState withId(String id) {
+    PartState state = copy();
+    state.id = id;
+    return state;
+  }
+
+  String getTitle() {
+    return title;
+  }
+
+  PartState withTitle(String title) {
+    PartState state = copy();
+    state.title = title;
+    return state;
+  }
+
+  String getTitleCategory() {
+    return titleCategory;
+  }
+
+  PartState withTitleCategory(String titleCategory) {
+    PartState state = copy();
+    state.titleCategory = titleCategory;
+    return state;
+  }
+
+  String getVendor() {
+    return vendor;
+  }
+
+  PartState withVendor(String vendor) {
+    PartState state = copy();
+    state.vendor = vendor;
+    return state;
+  }
+
+  String getProject() {
+    return project;
+  }
+
+  PartState withProject(String project) {
+    PartState state = copy();
+    state.project = project;
+    return state;
+  }
+
+  String getContentHash() {
+    return contentHash;
+  }
+
+  PartState withContentHash(String contentHash) {
+    PartState state = copy();
+    state.contentHash = contentHash;
+    return state;
+  }
+
+  Double getPackageCost() {
+    return packageCost;
+  }
+
+  PartState withPackageCost(Double packageCost) {
+    PartState state = copy();
+    state.packageCost = packageCost;
+    return state;
+  }
+
+  Double getPackageUnits() {
+    return packageUnits;
+  }
+
+  PartState withPackageUnits(Double packageUnits) {
+    PartState state = copy();
+    state.packageUnits = packageUnits;
+    return state;
+  }
+
+  PartUsage getSourcePartUsage() {
+    return sourcePartUsage;
+  }
+
+  PartState withSourcePartUsage(PartUsage sourcePartUsage) {
+    PartState state = copy();
+    state.sourcePartUsage = sourcePartUsage;
+    return state;
+  }
+
+  /**
+   * @return unmodifiable required parts
+   */
+  List<PartUsage> getRequiredParts() {
+    return requiredParts;
+  }
+
+  PartState withRequiredParts(List<PartUsage> requiredParts) {
+    PartState state = copy();
+    state.requiredParts = Collections.unmodifiableList(new ArrayList<PartUsage>(requiredParts));
+    return state;
+  }
+
+  /**
+   * @return source part, if any, followed by the required parts
+   */
+  List<Part> getSubParts() {
+    List<Part> subParts = new ArrayList<Part>(requiredParts.size() + 1);
+    if (sourcePartUsage != null) {
+      subParts.add(sourcePartUsage.getPart());
+    }
+    for (PartUsage partUsage : requiredParts) {
+      subParts.add(partUsage.getPart());
+    }
+    return subParts;
+  }
+
+  List<String> getSourceList() {
+    return sourceList;
+  }
+
+  PartState withSourceList(List<String> sourceList) {
+    PartState state = copy();
+    state.sourceList = sourceList == null ? null : Collections.unmodifiableList(new ArrayList<String>(sourceList));
+    return state;
+  }
+
+  RuntimeException getRefreshException() {
+    return refreshException;
+  }
+
+  PartState withRefreshException(RuntimeException refreshException) {
+    PartState state = copy();
+    state.refreshException = refreshException;
+    return state;
+  }
+
+  boolean isResolved() {
+    return isResolved;
+  }
+
+  PartState withResolved(boolean isResolved) {
+    PartState state = copy();
+    state.isResolved = isResolved;
+    return state;
+  }
+}
@@ -0,0 +1,183 @@
+package org.firepick.firebom.part;
+/*
+   PartTreeRefresher.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.ProxyResolutionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deep refresh of a part and every part it uses. Each distinct part of the source/required graph is
+ * visited once per walk, and sibling subtrees are refreshed concurrently.
+ * A task that waits for a sibling nobody has started yet runs it itself, so nested waits
+ * cannot starve the bounded pool.
+ */
+public class PartTreeRefresher {
+  private final int refreshThreads;
+  private ExecutorService executor;
+
+  public PartTreeRefresher() {
+    this(PartRefreshExecutor.DEFAULT_REFRESH_THREADS);
+  }
+
+  public PartTreeRefresher(int refreshThreads) {
+    if (refreshThreads <= 0) {
+      throw new IllegalArgumentException("refresh threads must be positive: " + refreshThreads);
+    }
+    this.refreshThreads = refreshThreads;
+  }
+
+  private synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      executor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "PartTreeRefresher-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return executor;
+  }
+
+  /**
+   * Refresh the given part, then the parts it uses, then the part again so that it sees their changes.
+   * Returns when the whole graph below the part has been refreshed.
+   *
+   * @throws RuntimeException the first refresh failure, after all other refreshes have completed
+   */
+  public Part refreshAll(Part part) {
+    new Walk(getExecutor(), part).visit(part);
+    return part;
+  }
+
+  /**
+   * Stop the worker threads. A later refreshAll() starts new ones.
+   */
+  public synchronized void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private static class Walk {
+    private final ExecutorService executor;
+    private final Set<Part> visitedParts = Collections.synchronizedSet(
+      Collections.newSetFromMap(new IdentityHashMap<Part, Boolean>()));
+
+    Walk(ExecutorService executor, Part root) {
+      this.executor = executor;
+      visitedParts.add(root);
+    }
+
+    void visit(Part part) {
+      part.refresh();
+      List<Part> children = claimChildren(part);
+      if (children.isEmpty()) {
+        return;
+      }
+      List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(children.size() - 1);
+      for (int i = 1; i < children.size(); i++) {
+        final Part child = children.get(i);
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+          @Override
+          public void run() {
+            visit(child);
+          }
+        }, null);
+        tasks.add(task);
+        try {
+          executor.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+          // shut down; the task runs on this thread below
+        }
+      }
+      RuntimeException failure = null;
+      try {
+        visit(children.get(0));
+      }
+      catch (RuntimeException e) {
+        failure = e;
+      }
+      for (FutureTask<Object> task : tasks) {
+        task.run(); // no-op unless the task has not started
+        try {
+          task.get();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ProxyResolutionException(e);
+        }
+        catch (ExecutionException e) {
+          if (failure == null) {
+            failure = unwrap(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      part.refresh();
+    }
+
+    /**
+     * @return source and required parts of the given part that no other branch of this walk has claimed
+     */
+    private List<Part> claimChildren(Part part) {
+      List<Part> children = new ArrayList<Part>();
+      PartUsage sourcePartUsage = part.getSourcePartUsage();
+      if (sourcePartUsage != null && visitedParts.add(sourcePartUsage.getPart())) {
+        children.add(sourcePartUsage.getPart());
+      }
+      for (PartUsage partUsage : part.getRequiredParts()) {
+        if (visitedParts.add(partUsage.getPart())) {
+          children.add(partUsage.getPart());
+        }
+      }
+      return children;
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        return (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      return new ProxyResolutionException((Exception) cause);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package org.firepick.firebom.part;
+/*
+   PartVendor.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Creates the parts sold by one vendor. Vendors are contributed by PartVendorProviders.
+ */
+public interface PartVendor {
+  /**
+   * @return host names of the vendor's part urls, including aliases such as url shorteners
+   */
+  List<String> getHosts();
+
+  VendorPolicy getPolicy();
+
+  Part createPart(PartFactory partFactory, URL url, CachedUrlResolver urlResolver);
+}
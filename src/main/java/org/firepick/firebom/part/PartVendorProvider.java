@@ -0,0 +1,27 @@
+package org.firepick.firebom.part;
+/*
+   PartVendorProvider.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.util.List;
+
+/**
+ * Vendor plugin SPI. Plugin jars list their implementations in
+ * META-INF/services/org.firepick.firebom.part.PartVendorProvider for java.util.ServiceLoader.
+ */
+public interface PartVendorProvider {
+  List<PartVendor> getVendors();
+}
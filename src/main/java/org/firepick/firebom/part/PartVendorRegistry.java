@@ -0,0 +1,110 @@
+package org.firepick.firebom.part;
+/*
+   PartVendorRegistry.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps part url hosts to vendors. Urls of unknown hosts are treated as generic HTML parts.
+ */
+public class PartVendorRegistry {
+  private static Logger logger = LoggerFactory.getLogger(PartVendorRegistry.class);
+  private final ConcurrentHashMap<String, PartVendor> vendors = new ConcurrentHashMap<String, PartVendor>();
+  private final PartVendor defaultVendor = new SimplePartVendor(HtmlPart.class);
+  private volatile CachedUrlResolver urlResolver;
+
+  /**
+   * Register the built-in vendors followed by the vendors of all plugins found by ServiceLoader,
+   * which may replace built-in vendors for the same hosts.
+   */
+  public PartVendorRegistry() {
+    this(Collections.<PartVendorProvider>singletonList(new DefaultPartVendorProvider()));
+    for (PartVendorProvider provider : ServiceLoader.load(PartVendorProvider.class)) {
+      if (!(provider instanceof DefaultPartVendorProvider)) {
+        logger.info("registering vendor plugin {}", provider.getClass().getName());
+        register(provider);
+      }
+    }
+  }
+
+  public PartVendorRegistry(Iterable<PartVendorProvider> providers) {
+    for (PartVendorProvider provider : providers) {
+      register(provider);
+    }
+  }
+
+  public PartVendorRegistry register(PartVendorProvider provider) {
+    for (PartVendor vendor : provider.getVendors()) {
+      register(vendor);
+    }
+    return this;
+  }
+
+  /**
+   * Register a vendor for all its hosts, replacing any vendor previously registered for them.
+   */
+  public PartVendorRegistry register(PartVendor vendor) {
+    for (String host : vendor.getHosts()) {
+      PartVendor oldVendor = vendors.put(host.toLowerCase(Locale.ENGLISH), vendor);
+      if (oldVendor != null && oldVendor != vendor) {
+        logger.info("{} replaces {} for {}", new Object[]{vendor, oldVendor, host});
+      }
+      vendor.getPolicy().applyTo(host);
+      CachedUrlResolver resolver = urlResolver;
+      if (resolver != null) {
+        vendor.getPolicy().applyTo(resolver, host);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Apply the policies of registered and later registered vendors to the given resolver.
+   */
+  public PartVendorRegistry setUrlResolver(CachedUrlResolver urlResolver) {
+    this.urlResolver = urlResolver;
+    for (PartVendor vendor : getVendors()) {
+      for (String host : vendor.getHosts()) {
+        if (getVendor(host) == vendor) {
+          vendor.getPolicy().applyTo(urlResolver, host);
+        }
+      }
+    }
+    return this;
+  }
+
+  public CachedUrlResolver getUrlResolver() {
+    return urlResolver;
+  }
+
+  public PartVendor getVendor(String host) {
+    PartVendor vendor = host == null ? null : vendors.get(host.toLowerCase(Locale.ENGLISH));
+    return vendor == null ? defaultVendor : vendor;
+  }
+
+  public Collection<PartVendor> getVendors() {
+    return Collections.unmodifiableCollection(new LinkedHashSet<PartVendor>(vendors.values()));
+  }
+}
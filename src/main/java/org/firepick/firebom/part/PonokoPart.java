@@ -28,9 +28,15 @@ public class PonokoPart extends Part {
         super(partFactory, url, urlResolver);
     }
 
+    @Override
+    protected ContentScraper createContentScraper() {
+        return new ContentScraper()
+                .require(startPrice, endPrice);
+    }
+
     @Override
     protected void refreshFromRemoteContent(String content) throws IOException {
-        String price = PartFactory.getInstance().scrapeText(content, startPrice, endPrice);
+        String price = PartFactory.scrapeText(content, startPrice, endPrice);
         if (price != null) {
             setPackageCost(Double.parseDouble(price));
         }
@@ -0,0 +1,178 @@
+package org.firepick.firebom.part;
+/*
+   RefreshAheadScheduler.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes frequently sampled parts shortly before they go stale, so that their users
+ * rarely wait for a vendor round-trip. A part is hot while it keeps being sampled at the
+ * interval its RefreshableTimer predicts. Each refresh of a hot part schedules the next one
+ * a fraction of its refresh interval ahead of the due time, with random jitter that spreads
+ * out parts refreshed together. Parts already refreshed as often as their minimum refresh
+ * interval allows are refreshed ahead by their refresh latency, so that new content arrives
+ * as the old goes stale. Parts that cool down are left to be refreshed on demand.
+ */
+public class RefreshAheadScheduler {
+  public static double DEFAULT_LEAD_FRACTION = 0.1;
+  public static double DEFAULT_HOT_FACTOR = 2;
+  private static Logger logger = LoggerFactory.getLogger(RefreshAheadScheduler.class);
+  private final PartRefreshExecutor refreshExecutor;
+  private final ConcurrentHashMap<Part, Boolean> scheduledParts = new ConcurrentHashMap<Part, Boolean>();
+  private final AtomicLong refreshesAhead = new AtomicLong();
+  private final Random random = new Random();
+  private double leadFraction = DEFAULT_LEAD_FRACTION;
+  private double hotFactor = DEFAULT_HOT_FACTOR;
+  private ScheduledExecutorService timer;
+
+  public RefreshAheadScheduler(PartRefreshExecutor refreshExecutor) {
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  /**
+   * @return true if the part has been sampled within hotFactor times its average sample interval
+   */
+  public boolean isHot(Part part) {
+    long sampleInterval = part.getSampleInterval();
+    return sampleInterval > 0 &&
+        System.currentTimeMillis() - part.getLastSampleMillis() <= hotFactor * sampleInterval;
+  }
+
+  /**
+   * @return lead by which the part should be refreshed ahead of its due time. A refresh ahead
+   * never completes before the part's minimum refresh interval has elapsed.
+   */
+  public long getLead(Part part) {
+    long refreshInterval = part.getRefreshInterval();
+    long slack = Math.max(refreshInterval - part.getMinRefeshInterval(), part.getRefreshLatency());
+    return Math.min((long) (leadFraction * refreshInterval), slack);
+  }
+
+  /**
+   * Schedule a refresh ahead of the part's due time if it is hot and not already scheduled.
+   */
+  public void schedule(Part part) {
+    if (!isHot(part) || scheduledParts.putIfAbsent(part, Boolean.TRUE) != null) {
+      return;
+    }
+    scheduleAhead(part);
+  }
+
+  /**
+   * Schedule the refresh at a random time in the first half of the lead window.
+   * The refresh is dropped if the scheduler is shut down meanwhile.
+   */
+  private void scheduleAhead(final Part part) {
+    final long dueMillis = part.getRefreshDueMillis();
+    long lead = getLead(part);
+    long refreshMillis = dueMillis - lead + (long) (random.nextDouble() * lead / 2);
+    long delay = Math.max(0, refreshMillis - System.currentTimeMillis());
+    try {
+      getTimer().schedule(new Runnable() {
+        @Override
+        public void run() {
+          refreshAhead(part, dueMillis);
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException e) {
+      logger.debug("refresh ahead dropped on shutdown {}", part.getUrl());
+      scheduledParts.remove(part);
+    }
+  }
+
+  private void refreshAhead(Part part, long scheduledDueMillis) {
+    if (part.getRefreshDueMillis() > scheduledDueMillis) {
+      scheduleAhead(part); // refreshed meanwhile
+      return;
+    }
+    scheduledParts.remove(part);
+    if (isHot(part)) {
+      logger.debug("refresh ahead {}", part.getUrl());
+      if (refreshExecutor.submitAhead(part)) {
+        refreshesAhead.incrementAndGet();
+      }
+    }
+  }
+
+  private synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RefreshAheadScheduler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return timer;
+  }
+
+  /**
+   * Cancel all scheduled refreshes. Refreshes scheduled later restart the scheduler.
+   */
+  public synchronized void shutdown() {
+    if (timer != null) {
+      timer.shutdownNow();
+      timer = null;
+    }
+    scheduledParts.clear();
+  }
+
+  public int getScheduledParts() {
+    return scheduledParts.size();
+  }
+
+  /**
+   * @return number of refreshes submitted ahead of the due time
+   */
+  public long getRefreshesAhead() {
+    return refreshesAhead.get();
+  }
+
+  public double getLeadFraction() {
+    return leadFraction;
+  }
+
+  /**
+   * @param leadFraction fraction of the refresh interval by which hot parts are refreshed ahead of time
+   */
+  public RefreshAheadScheduler setLeadFraction(double leadFraction) {
+    this.leadFraction = leadFraction;
+    return this;
+  }
+
+  public double getHotFactor() {
+    return hotFactor;
+  }
+
+  public RefreshAheadScheduler setHotFactor(double hotFactor) {
+    this.hotFactor = hotFactor;
+    return this;
+  }
+}
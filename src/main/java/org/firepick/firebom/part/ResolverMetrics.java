@@ -0,0 +1,296 @@
+package org.firepick.firebom.part;
+/*
+   ResolverMetrics.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters for url resolution. Counters are updated by many fetch threads
+ * and may be read at any time, programmatically or through JMX.
+ */
+public class ResolverMetrics implements ResolverMetricsMBean {
+    private final AtomicLong urlRequests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong networkRequests = new AtomicLong();
+    private final AtomicLong networkFailures = new AtomicLong();
+    private final AtomicLong unchangedResponses = new AtomicLong();
+    private final AtomicLong coalescedRequests = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicInteger inFlightFetches = new AtomicInteger();
+    private final ConcurrentHashMap<String, HostMetrics> hostMetrics = new ConcurrentHashMap<String, HostMetrics>();
+
+    public void recordUrlRequest() {
+        urlRequests.incrementAndGet();
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.incrementAndGet();
+    }
+
+    public void recordNegativeHit() {
+        negativeHits.incrementAndGet();
+    }
+
+    public void recordCoalescedRequest() {
+        coalescedRequests.incrementAndGet();
+    }
+
+    public void recordRedirect() {
+        redirects.incrementAndGet();
+    }
+
+    public void recordFetchStarted() {
+        networkRequests.incrementAndGet();
+        inFlightFetches.incrementAndGet();
+    }
+
+    public void recordFetchCompleted(String host, long latencyMillis, boolean isFailure, boolean isUnchanged) {
+        inFlightFetches.decrementAndGet();
+        if (isFailure) {
+            networkFailures.incrementAndGet();
+        }
+        if (isUnchanged) {
+            unchangedResponses.incrementAndGet();
+        }
+        getHostMetrics(host).recordFetch(latencyMillis, isFailure);
+    }
+
+    public void recordBytes(String host, long bytes) {
+        bytesTransferred.addAndGet(bytes);
+        getHostMetrics(host).bytes.addAndGet(bytes);
+    }
+
+    public HostMetrics getHostMetrics(String host) {
+        HostMetrics metrics = hostMetrics.get(host);
+        if (metrics == null) {
+            HostMetrics newMetrics = new HostMetrics(host);
+            metrics = hostMetrics.putIfAbsent(host, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    public Map<String, HostMetrics> getHostMetrics() {
+        return Collections.unmodifiableMap(hostMetrics);
+    }
+
+    @Override
+    public long getUrlRequests() {
+        return urlRequests.get();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @Override
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    /**
+     * @return fraction of url requests answered from the cache, including cached failures
+     */
+    @Override
+    public double getHitRatio() {
+        long hits = cacheHits.get() + negativeHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getNetworkRequests() {
+        return networkRequests.get();
+    }
+
+    @Override
+    public long getNetworkFailures() {
+        return networkFailures.get();
+    }
+
+    @Override
+    public long getUnchangedResponses() {
+        return unchangedResponses.get();
+    }
+
+    @Override
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    @Override
+    public long getRedirects() {
+        return redirects.get();
+    }
+
+    @Override
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    @Override
+    public int getInFlightFetches() {
+        return inFlightFetches.get();
+    }
+
+    @Override
+    public String[] getHostStatistics() {
+        List<String> statistics = new ArrayList<String>();
+        for (HostMetrics metrics : hostMetrics.values()) {
+            statistics.add(metrics.toString());
+        }
+        Collections.sort(statistics);
+        return statistics.toArray(new String[statistics.size()]);
+    }
+
+    @Override
+    public void reset() {
+        urlRequests.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        negativeHits.set(0);
+        networkRequests.set(0);
+        networkFailures.set(0);
+        unchangedResponses.set(0);
+        coalescedRequests.set(0);
+        redirects.set(0);
+        bytesTransferred.set(0);
+        hostMetrics.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "requests:" + getUrlRequests() +
+                " hits:" + getCacheHits() +
+                " misses:" + getCacheMisses() +
+                " negative:" + getNegativeHits() +
+                " network:" + getNetworkRequests() +
+                " failures:" + getNetworkFailures() +
+                " coalesced:" + getCoalescedRequests() +
+                " bytes:" + getBytesTransferred() +
+                " inFlight:" + getInFlightFetches();
+    }
+
+    /**
+     * Fetch statistics for one vendor host with a latency histogram of exponential buckets.
+     */
+    public static class HostMetrics {
+        private static final long[] LATENCY_BOUNDS = {
+                10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000, 50000, Long.MAX_VALUE
+        };
+        private final String host;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLongArray latencyCounts = new AtomicLongArray(LATENCY_BOUNDS.length);
+
+        HostMetrics(String host) {
+            this.host = host;
+        }
+
+        void recordFetch(long latencyMillis, boolean isFailure) {
+            requests.incrementAndGet();
+            if (isFailure) {
+                failures.incrementAndGet();
+            }
+            totalLatency.addAndGet(latencyMillis);
+            int bucket = 0;
+            while (latencyMillis > LATENCY_BOUNDS[bucket]) {
+                bucket++;
+            }
+            latencyCounts.incrementAndGet(bucket);
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getAverageLatency() {
+            long n = requests.get();
+            return n == 0 ? 0 : totalLatency.get() / n;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return upper bound in milliseconds of the histogram bucket holding the given percentile
+         */
+        public long getLatencyPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                total += latencyCounts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long count = 0;
+            for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+                count += latencyCounts.get(i);
+                if (count >= rank && count > 0) {
+                    return LATENCY_BOUNDS[i];
+                }
+            }
+            return LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1];
+        }
+
+        @Override
+        public String toString() {
+            return host +
+                    " requests:" + getRequests() +
+                    " failures:" + getFailures() +
+                    " bytes:" + getBytes() +
+                    " avg:" + getAverageLatency() + "ms" +
+                    " p50:" + getLatencyPercentile(50) + "ms" +
+                    " p99:" + getLatencyPercentile(99) + "ms";
+        }
+    }
+}
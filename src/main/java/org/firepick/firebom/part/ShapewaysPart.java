@@ -30,13 +30,20 @@ public class ShapewaysPart extends Part {
         super(partFactory, url, urlResolver);
     }
 
+    @Override
+    protected ContentScraper createContentScraper() {
+        return new ContentScraper()
+                .require(startPrice, endPrice)
+                .require(startId, endId);
+    }
+
     @Override
     protected void refreshFromRemoteContent(String content) throws IOException {
-        String price = PartFactory.getInstance().scrapeText(content, startPrice, endPrice);
+        String price = PartFactory.scrapeText(content, startPrice, endPrice);
         if (price != null) {
             setPackageCost(Double.parseDouble(price));
         }
-        String id = PartFactory.getInstance().scrapeText(content, startId, endId);
+        String id = PartFactory.scrapeText(content, startId, endId);
         if (id != null) {
             setId(id);
         }
@@ -0,0 +1,82 @@
+package org.firepick.firebom.part;
+/*
+   SimplePartVendor.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.ProxyResolutionException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Vendor whose parts are instances of a Part class with the standard
+ * (PartFactory, URL, CachedUrlResolver) constructor.
+ */
+public class SimplePartVendor implements PartVendor {
+  private final Constructor<? extends Part> constructor;
+  private final List<String> hosts;
+  private VendorPolicy policy = new VendorPolicy();
+
+  public SimplePartVendor(Class<? extends Part> partClass, String... hosts) {
+    try {
+      this.constructor = partClass.getConstructor(PartFactory.class, URL.class, CachedUrlResolver.class);
+    }
+    catch (NoSuchMethodException e) {
+      throw new IllegalArgumentException("Part class has no vendor constructor: " + partClass.getName(), e);
+    }
+    this.hosts = Collections.unmodifiableList(Arrays.asList(hosts));
+  }
+
+  @Override
+  public List<String> getHosts() {
+    return hosts;
+  }
+
+  @Override
+  public VendorPolicy getPolicy() {
+    return policy;
+  }
+
+  public SimplePartVendor setPolicy(VendorPolicy policy) {
+    this.policy = policy;
+    return this;
+  }
+
+  @Override
+  public Part createPart(PartFactory partFactory, URL url, CachedUrlResolver urlResolver) {
+    try {
+      return constructor.newInstance(partFactory, url, urlResolver);
+    }
+    catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new ProxyResolutionException(url.toString(), e);
+    }
+    catch (Exception e) {
+      throw new ProxyResolutionException(url.toString(), e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return constructor.getDeclaringClass().getSimpleName() + hosts;
+  }
+}
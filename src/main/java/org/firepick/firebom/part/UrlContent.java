@@ -0,0 +1,184 @@
+package org.firepick.firebom.part;
+/*
+   UrlContent.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable url contents cached by CachedUrlResolver together with the
+ * HTTP validators needed to revalidate them.
+ * Contents are kept deflated and are only inflated when getContent() is called.
+ */
+public class UrlContent implements Serializable {
+    // page store records are Java-serialized, so the stream format must not depend on the class's methods
+    private static final long serialVersionUID = 2038250502285016345L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private final byte[] deflatedContent;
+    private final int contentLength;
+    private final String eTag;
+    private final String lastModified;
+    private final String contentHash;
+    private final long fetchMillis;
+    private final boolean isPartial;
+
+    public UrlContent(String content, String eTag, String lastModified) {
+        this(content, eTag, lastModified, false);
+    }
+
+    public UrlContent(String content, String eTag, String lastModified, boolean isPartial) {
+        byte[] bytes = content.getBytes(UTF8);
+        this.deflatedContent = deflate(bytes);
+        this.contentLength = content.length();
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentHash = hash(bytes);
+        this.fetchMillis = System.currentTimeMillis();
+        this.isPartial = isPartial;
+    }
+
+    protected UrlContent(UrlContent that, String eTag, String lastModified, long fetchMillis) {
+        this.deflatedContent = that.deflatedContent;
+        this.contentLength = that.contentLength;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentHash = that.contentHash;
+        this.fetchMillis = fetchMillis;
+        this.isPartial = that.isPartial;
+    }
+
+    static String hash(byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return DatatypeConverter.printHexBinary(digest.digest(bytes));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                bos.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return bos.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int sizeHint) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, sizeHint));
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("truncated url content");
+                }
+                bos.write(buffer, 0, n);
+            }
+            return bos.toByteArray();
+        }
+        catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt url content", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Return fresh copy of these contents after a 304 Not Modified response.
+     * Validators missing from the 304 response are carried over.
+     */
+    public UrlContent revalidate(String eTag, String lastModified) {
+        return new UrlContent(this,
+                eTag == null ? this.eTag : eTag,
+                lastModified == null ? this.lastModified : lastModified,
+                System.currentTimeMillis());
+    }
+
+    public String getContent() {
+        return new String(inflate(deflatedContent, contentLength), UTF8);
+    }
+
+    /**
+     * @return length of the inflated content in characters
+     */
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return number of bytes used to store the deflated content
+     */
+    public int getStoredLength() {
+        return deflatedContent.length;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return digest that changes only when the content changes
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return true if only a page prefix was read by a streaming scraper
+     */
+    public boolean isPartial() {
+        return isPartial;
+    }
+
+    public long getFetchMillis() {
+        return fetchMillis;
+    }
+
+    public long getAge() {
+        return System.currentTimeMillis() - fetchMillis;
+    }
+
+    @Override
+    public String toString() {
+        return getContent();
+    }
+}
@@ -0,0 +1,425 @@
+package org.firepick.firebom.part;
+/*
+   UrlContentStore.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of url contents that survives restarts.
+ * Records are appended to fixed size memory-mapped segment files and located through an
+ * in-memory index that is rebuilt by scanning the segments on startup. Each record carries
+ * a CRC, so a record torn by a crash ends the scan of its segment instead of corrupting the index.
+ * A background task forces dirty pages to disk and compacts segments that are mostly superseded.
+ */
+public class UrlContentStore {
+    public static long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static long DEFAULT_MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+    private static Logger logger = LoggerFactory.getLogger(UrlContentStore.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0xF1B0C0DE;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8; // magic, keyLength, valueLength, timestamp, crc
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
+    private final File directory;
+    private final long segmentBytes;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<String, Location>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+    private long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private double compactionRatio = 0.5;
+    private Segment activeSegment;
+    private ScheduledExecutorService maintenanceExecutor;
+
+    public UrlContentStore(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public UrlContentStore(File directory, long segmentBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create url content store " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        recover();
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "UrlContentStore-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    force();
+                    compact();
+                }
+                catch (Exception e) {
+                    logger.warn("url content store maintenance failed", e);
+                }
+            }
+        }, 10, 10, TimeUnit.SECONDS);
+    }
+
+    private void recover() throws IOException {
+        long msStart = System.currentTimeMillis();
+        File[] files = directory.listFiles();
+        List<Integer> ids = new ArrayList<Integer>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        ids.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    }
+                    catch (NumberFormatException e) {
+                        logger.warn("ignoring {}", file);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        for (int id : ids) {
+            Segment segment = openSegment(id, 0);
+            segments.put(id, segment);
+            scan(segment);
+            activeSegment = segment;
+        }
+        if (activeSegment != null) {
+            // discard anything after the last good record so that stale records are never revived
+            ByteBuffer buffer = activeSegment.buffer.duplicate();
+            buffer.position(activeSegment.writePosition);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0);
+            }
+        }
+        logger.info("recovered {} url contents from {} segments in {}ms",
+                new Object[]{index.size(), segments.size(), System.currentTimeMillis() - msStart});
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        long minTimestamp = System.currentTimeMillis() - maxAgeMillis;
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.limit()) {
+            buffer.position(position);
+            if (buffer.getInt() != MAGIC) {
+                break;
+            }
+            int keyLength = buffer.getInt();
+            int valueLength = buffer.getInt();
+            long timestamp = buffer.getLong();
+            long crc = buffer.getLong();
+            if (keyLength < 0 || valueLength < 0 || (long) position + HEADER_BYTES + keyLength + valueLength > buffer.limit()) {
+                break;
+            }
+            byte[] data = new byte[keyLength + valueLength];
+            buffer.get(data);
+            if (crc != checksum(keyLength, valueLength, timestamp, data)) {
+                logger.warn("ignoring torn record at {}:{}", segment.file, position);
+                break;
+            }
+            int recordLength = HEADER_BYTES + data.length;
+            if (timestamp >= minTimestamp) {
+                String key = new String(data, 0, keyLength, UTF8);
+                index(key, new Location(segment, position, recordLength, keyLength, timestamp));
+            }
+            position += recordLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private void index(String key, Location location) {
+        Location oldLocation = index.get(key);
+        if (oldLocation == null || oldLocation.timestamp <= location.timestamp) {
+            index.put(key, location);
+            location.segment.liveBytes.addAndGet(location.length);
+            if (oldLocation != null) {
+                oldLocation.segment.liveBytes.addAndGet(-oldLocation.length);
+            }
+        }
+    }
+
+    private static long checksum(int keyLength, int valueLength, long timestamp, byte[] data) {
+        CRC32 crc32 = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putInt(keyLength).putInt(valueLength).putLong(timestamp);
+        crc32.update(header.array());
+        crc32.update(data);
+        return crc32.getValue();
+    }
+
+    private Segment openSegment(int id, long length) throws IOException {
+        File file = new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (length > 0) {
+                raf.setLength(length);
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            return new Segment(id, file, buffer);
+        }
+        finally {
+            raf.close(); // mapping remains valid
+        }
+    }
+
+    public UrlContent get(String key) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        if (location.timestamp < System.currentTimeMillis() - maxAgeMillis) {
+            expire(key, location);
+            return null;
+        }
+        ByteBuffer buffer = location.segment.buffer.duplicate();
+        int valueLength = location.length - HEADER_BYTES - location.keyLength;
+        byte[] value = new byte[valueLength];
+        buffer.position(location.offset + HEADER_BYTES + location.keyLength);
+        buffer.get(value);
+        try {
+            ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(value));
+            return (UrlContent) ois.readObject();
+        }
+        catch (Exception e) {
+            logger.warn("could not read stored url content {}", key, e);
+            return null;
+        }
+    }
+
+    public void put(String key, UrlContent urlContent) {
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] data;
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            bos.write(keyBytes);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(urlContent);
+            oos.close();
+            data = bos.toByteArray();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        int valueLength = data.length - keyBytes.length;
+        long timestamp = urlContent.getFetchMillis();
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + data.length);
+        record.putInt(MAGIC).putInt(keyBytes.length).putInt(valueLength).putLong(timestamp);
+        record.putLong(checksum(keyBytes.length, valueLength, timestamp, data));
+        record.put(data);
+        append(key, record.array(), keyBytes.length, timestamp, null);
+    }
+
+    /**
+     * Append a record to the active segment and point the index at it.
+     *
+     * @param expected if not null, the index is only updated if it still refers to this location
+     */
+    private void append(String key, byte[] record, int keyLength, long timestamp, Location expected) {
+        if (record.length > segmentBytes) {
+            logger.warn("url content too large to store: {}B {}", record.length, key);
+            return;
+        }
+        Location location;
+        synchronized (this) {
+            if (activeSegment == null || activeSegment.writePosition + record.length > activeSegment.buffer.limit()) {
+                int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+                try {
+                    activeSegment = openSegment(id, segmentBytes);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                segments.put(id, activeSegment);
+            }
+            ByteBuffer buffer = activeSegment.buffer.duplicate();
+            buffer.position(activeSegment.writePosition + 4);
+            buffer.put(record, 4, record.length - 4);
+            buffer.putInt(activeSegment.writePosition, MAGIC); // record becomes visible to recovery last
+            location = new Location(activeSegment, activeSegment.writePosition, record.length, keyLength, timestamp);
+            activeSegment.writePosition += record.length;
+        }
+        location.segment.liveBytes.addAndGet(location.length);
+        boolean isIndexed;
+        Location oldLocation = null;
+        if (expected == null) {
+            oldLocation = index.put(key, location);
+            isIndexed = true;
+        } else {
+            isIndexed = index.replace(key, expected, location);
+            oldLocation = isIndexed ? expected : null;
+        }
+        if (!isIndexed) {
+            location.segment.liveBytes.addAndGet(-location.length);
+        }
+        if (oldLocation != null) {
+            oldLocation.segment.liveBytes.addAndGet(-oldLocation.length);
+        }
+    }
+
+    /**
+     * Drop an expired record from the index, so that its bytes count as dead.
+     */
+    private void expire(String key, Location location) {
+        if (index.remove(key, location)) {
+            location.segment.liveBytes.addAndGet(-location.length);
+        }
+    }
+
+    /**
+     * Copy the live records of mostly superseded or expired segments into the active segment and delete them.
+     * Expired records are dropped first, since pages that are no longer requested are never superseded.
+     */
+    public void compact() {
+        long minTimestamp = System.currentTimeMillis() - maxAgeMillis;
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (entry.getValue().timestamp < minTimestamp) {
+                expire(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Segment segment : segments.values()) {
+            synchronized (this) {
+                if (segment == activeSegment) {
+                    continue;
+                }
+            }
+            if (segment.liveBytes.get() > compactionRatio * segment.writePosition) {
+                continue;
+            }
+            for (Map.Entry<String, Location> entry : index.entrySet()) {
+                Location location = entry.getValue();
+                if (location.segment != segment) {
+                    continue;
+                }
+                if (location.timestamp < minTimestamp) {
+                    expire(entry.getKey(), location);
+                } else {
+                    byte[] record = new byte[location.length];
+                    ByteBuffer buffer = segment.buffer.duplicate();
+                    buffer.position(location.offset);
+                    buffer.get(record);
+                    append(entry.getKey(), record, location.keyLength, location.timestamp, location);
+                }
+            }
+            force();
+            segments.remove(segment.id);
+            if (!segment.file.delete()) {
+                logger.warn("could not delete compacted segment {}", segment.file);
+            } else {
+                logger.info("compacted {}", segment.file);
+            }
+        }
+    }
+
+    public void force() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Stop maintenance, waiting for a compaction in progress, and force all segments to disk.
+     */
+    public void close() {
+        maintenanceExecutor.shutdown();
+        try {
+            if (!maintenanceExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("url content store maintenance did not finish within {}s", CLOSE_TIMEOUT_SECONDS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        force();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public UrlContentStore setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+        return this;
+    }
+
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+    public UrlContentStore setCompactionRatio(double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+        return this;
+    }
+
+    private static class Segment {
+        final int id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final AtomicLong liveBytes = new AtomicLong();
+        volatile int writePosition;
+
+        Segment(int id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final int keyLength;
+        final long timestamp;
+
+        Location(Segment segment, int offset, int length, int keyLength, long timestamp) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.keyLength = keyLength;
+            this.timestamp = timestamp;
+        }
+    }
+}
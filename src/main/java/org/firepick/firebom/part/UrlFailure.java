@@ -0,0 +1,70 @@
+package org.firepick.firebom.part;
+/*
+   UrlFailure.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import java.io.Serializable;
+
+/**
+ * Negative cache entry for a url that could not be fetched.
+ * The failure is reported without a network request until its retry time,
+ * which backs off exponentially with consecutive failures.
+ */
+public class UrlFailure implements Serializable {
+    private static final long serialVersionUID = -1057849666731319363L;
+    private final Exception exception;
+    private final int failures;
+    private final long retryDelay;
+    private final long failMillis;
+
+    public UrlFailure(Exception exception, long retryDelay) {
+        this(exception, 1, retryDelay);
+    }
+
+    private UrlFailure(Exception exception, int failures, long retryDelay) {
+        this.exception = exception;
+        this.failures = failures;
+        this.retryDelay = retryDelay;
+        this.failMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return failure entry for another failed attempt with doubled retry delay
+     */
+    public UrlFailure retryFailed(Exception exception, long maxRetryDelay) {
+        return new UrlFailure(exception, failures + 1, Math.min(maxRetryDelay, 2 * retryDelay));
+    }
+
+    public boolean isRetryDue() {
+        return System.currentTimeMillis() - failMillis >= retryDelay;
+    }
+
+    public Exception getException() {
+        return exception;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public long getFailMillis() {
+        return failMillis;
+    }
+}
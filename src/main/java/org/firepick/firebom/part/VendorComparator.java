@@ -46,7 +46,7 @@ public class VendorComparator implements Comparator<IPartComparable> {
             }
         }
         if (cmp == 0) {
-            cmp = part1.getUrl().toString().compareTo(part2.getUrl().toString());
+            cmp = part1.getKey().compareTo(part2.getKey());
         }
 
         return cmp;
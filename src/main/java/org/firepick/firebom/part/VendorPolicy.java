@@ -0,0 +1,121 @@
+package org.firepick.firebom.part;
+/*
+   VendorPolicy.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+/**
+ * Per-vendor tuning. Zero or null values leave the corresponding default in effect.
+ */
+public class VendorPolicy {
+  private int maxConcurrency;
+  private double requestsPerSecond;
+  private long minRefreshInterval;
+  private String cookies;
+  private boolean isStreamingScrape = true;
+
+  public int getMaxConcurrency() {
+    return maxConcurrency;
+  }
+
+  public VendorPolicy setMaxConcurrency(int maxConcurrency) {
+    this.maxConcurrency = maxConcurrency;
+    return this;
+  }
+
+  public double getRequestsPerSecond() {
+    return requestsPerSecond;
+  }
+
+  public VendorPolicy setRequestsPerSecond(double requestsPerSecond) {
+    this.requestsPerSecond = requestsPerSecond;
+    return this;
+  }
+
+  public long getMinRefreshInterval() {
+    return minRefreshInterval;
+  }
+
+  public VendorPolicy setMinRefreshInterval(long minRefreshInterval) {
+    this.minRefreshInterval = minRefreshInterval;
+    return this;
+  }
+
+  public String getCookies() {
+    return cookies;
+  }
+
+  /**
+   * @param cookies sent with requests to the vendor's hosts unless a resolver sets its own
+   */
+  public VendorPolicy setCookies(String cookies) {
+    this.cookies = cookies;
+    return this;
+  }
+
+  public boolean isStreamingScrape() {
+    return isStreamingScrape;
+  }
+
+  /**
+   * @param isStreamingScrape false to always read entire pages even if parts provide a content scraper
+   */
+  public VendorPolicy setStreamingScrape(boolean isStreamingScrape) {
+    this.isStreamingScrape = isStreamingScrape;
+    return this;
+  }
+
+  /**
+   * Tighten the ceiling shared by all resolvers for the given host. The ceiling is never
+   * loosened, so that the policy of one factory cannot override a stricter one of another.
+   */
+  public void applyTo(String host) {
+    HostScheduler hostScheduler = CachedUrlResolver.getHostScheduler(host);
+    synchronized (hostScheduler) {
+      if (maxConcurrency > 0 && maxConcurrency < hostScheduler.getMaxConcurrency()) {
+        hostScheduler.setMaxConcurrency(maxConcurrency);
+      }
+      if (requestsPerSecond > 0 && requestsPerSecond < hostScheduler.getRequestsPerSecond()) {
+        hostScheduler.setRequestsPerSecond(requestsPerSecond);
+      }
+    }
+  }
+
+  /**
+   * Apply the request policy to the admission and cookies of the given resolver for the given host.
+   */
+  public void applyTo(CachedUrlResolver urlResolver, String host) {
+    HostScheduler tenantScheduler = urlResolver.getTenantScheduler(host);
+    if (maxConcurrency > 0) {
+      tenantScheduler.setMaxConcurrency(maxConcurrency);
+    }
+    if (requestsPerSecond > 0) {
+      tenantScheduler.setRequestsPerSecond(requestsPerSecond);
+    }
+    if (cookies != null) {
+      urlResolver.setHostCookies(host, cookies);
+    }
+  }
+
+  /**
+   * Apply the refresh policy to a newly created part.
+   */
+  public void applyTo(Part part) {
+    if (minRefreshInterval > 0) {
+      part.setMinRefeshInterval(minRefreshInterval);
+    }
+    part.setStreamingScrape(isStreamingScrape);
+  }
+}
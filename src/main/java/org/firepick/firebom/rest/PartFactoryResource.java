@@ -25,7 +25,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import java.io.*;
-import java.util.TreeSet;
+import java.net.URLEncoder;
+import java.util.List;
 
 @Path("/part")
 public class PartFactoryResource {
@@ -33,7 +34,8 @@ public class PartFactoryResource {
     @GET
     @Path("/find")
     @Produces("text/html; charset=UTF-8")
-    public String findPart(@QueryParam("query") String query) throws IOException, InterruptedException {
+    public String findPart(@QueryParam("query") String query, @QueryParam("page") int page)
+            throws IOException, InterruptedException {
         PartFactory partFactory = PartFactory.getInstance();
 
         ByteArrayOutputStream bosHtml = new ByteArrayOutputStream();
@@ -45,7 +47,7 @@ public class PartFactoryResource {
         while (br.ready()) {
             String line = br.readLine();
             if (line.contains("<!--PART-->")) {
-                printParts(query, partFactory, psHtml, maxRows);
+                printParts(query, Math.max(0, page), partFactory, psHtml, maxRows);
             } else {
                 psHtml.println(line);
             }
@@ -54,15 +56,12 @@ public class PartFactoryResource {
         return bosHtml.toString();
     }
 
-    private void printParts(String query, PartFactory partFactory, PrintStream psHtml, int maxRows) {
-        TreeSet<Part> parts = new TreeSet<Part>();
-        for (Part part : partFactory) {
-            if (partMatchesQuery(part, query)) {
-                parts.add(part);
-                if (parts.size() >= maxRows) {
-                    break;
-                }
-            }
+    private void printParts(String query, int page, PartFactory partFactory, PrintStream psHtml, int maxRows)
+            throws UnsupportedEncodingException {
+        List<Part> parts = partFactory.findParts(query, page * maxRows, maxRows + 1);
+        boolean hasNextPage = parts.size() > maxRows;
+        if (hasNextPage) {
+            parts = parts.subList(0, maxRows);
         }
 
         psHtml.println("<table cellpadding=0 cellspacing=0 class='firebom_table'>");
@@ -74,7 +73,7 @@ public class PartFactoryResource {
         psHtml.println("<th class='firebom_th'>AGE@REFRESH</th>");
         psHtml.println("</tr>");
 
-        int row = 1;
+        int row = page * maxRows + 1;
         for (Part part : parts) {
             psHtml.print("<tr>");
             psHtml.print("<td class='firebom_td'>");
@@ -111,6 +110,12 @@ public class PartFactoryResource {
             psHtml.print("</tr>");
         }
         psHtml.print("</table>");
+        if (page > 0) {
+            printPageLink(psHtml, query, page - 1, "Previous");
+        }
+        if (hasNextPage) {
+            printPageLink(psHtml, query, page + 1, "Next");
+        }
 
         psHtml.print("Refresh queue: ");
         psHtml.println("<ol>");
@@ -125,7 +130,16 @@ public class PartFactoryResource {
 
     }
 
-    private boolean partMatchesQuery(Part part, String query) {
-        return true;
+    private void printPageLink(PrintStream psHtml, String query, int page, String label)
+            throws UnsupportedEncodingException {
+        psHtml.print("<a href='?page=");
+        psHtml.print(page);
+        if (query != null) {
+            psHtml.print("&query=");
+            psHtml.print(URLEncoder.encode(query, "UTF-8"));
+        }
+        psHtml.print("'>");
+        psHtml.print(label);
+        psHtml.println("</a> ");
     }
 }
@@ -0,0 +1,627 @@
+package org.firepick.firebom.part;
+/*
+   CachedUrlResolverTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import net.sf.ehcache.CacheManager;
+import org.firepick.firebom.exception.ProxyResolutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachedUrlResolverTest {
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+
+  @Before
+  public void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    serverExecutor = Executors.newCachedThreadPool();
+    server.setExecutor(serverExecutor);
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  private URL serve(String path, HttpHandler handler) throws Exception {
+    server.createContext(path, handler);
+    return new URL("http://localhost:" + server.getAddress().getPort() + path);
+  }
+
+  private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    if (body == null) {
+      exchange.sendResponseHeaders(status, -1);
+    } else {
+      byte[] bytes = body.getBytes("UTF-8");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream os = exchange.getResponseBody();
+      os.write(bytes);
+      os.close();
+    }
+    exchange.close();
+  }
+
+  @Test
+  public void testRevalidation() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger conditionalRequests = new AtomicInteger();
+    URL url = serve("/revalidation", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if ("\"v1\"".equals(ifNoneMatch) && "Tue, 01 Oct 2013 00:00:00 GMT".equals(ifModifiedSince)) {
+          conditionalRequests.incrementAndGet();
+          respond(exchange, 304, null);
+        } else {
+          exchange.getResponseHeaders().add("ETag", "\"v1\"");
+          exchange.getResponseHeaders().add("Last-Modified", "Tue, 01 Oct 2013 00:00:00 GMT");
+          respond(exchange, 200, "hello");
+        }
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver().setFreshMillis(0);
+    UrlContent content = resolver.getContent(url);
+    assertEquals("hello", content.getContent());
+    UrlContent revalidated = resolver.getContent(url);
+    assertEquals("hello", revalidated.getContent());
+    assertEquals("\"v1\"", revalidated.getETag());
+    assertEquals(content.getContentHash(), revalidated.getContentHash());
+    assertEquals(2, requests.get());
+    assertEquals(1, conditionalRequests.get());
+  }
+
+  @Test
+  public void testEncodedEmptyResponses() throws Exception {
+    final AtomicInteger conditionalRequests = new AtomicInteger();
+    final URL url = serve("/encoded", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          conditionalRequests.incrementAndGet();
+          respond(exchange, 304, null);
+        } else {
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+          gzip.write("hello".getBytes("UTF-8"));
+          gzip.close();
+          exchange.sendResponseHeaders(200, bytes.size());
+          OutputStream os = exchange.getResponseBody();
+          os.write(bytes.toByteArray());
+          os.close();
+          exchange.close();
+        }
+      }
+    });
+    URL redirect = serve("/encodedRedirect", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.getResponseHeaders().add("Location", url.toString());
+        respond(exchange, 302, null);
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver().setFreshMillis(0).setFailureRetryMillis(60000);
+    assertEquals("hello", resolver.getContent(url).getContent());
+    assertEquals("hello", resolver.getContent(url).getContent());
+    // a failed revalidation would suppress the next one
+    assertEquals("hello", resolver.getContent(url).getContent());
+    assertEquals(2, conditionalRequests.get());
+    assertEquals("hello", resolver.getContent(redirect).getContent());
+  }
+
+  @Test
+  public void testStoredContentIsRevalidated() throws Exception {
+    final AtomicInteger conditionalRequests = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    URL url = serve("/stored", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          conditionalRequests.incrementAndGet();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          }
+          catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          respond(exchange, 304, null);
+        } else {
+          respond(exchange, 200, "new");
+        }
+      }
+    });
+    File dir = new File(System.getProperty("java.io.tmpdir"), "CachedUrlResolverTest-" + System.nanoTime());
+    UrlContentStore store = new UrlContentStore(dir);
+    CachedUrlResolver resolver = new CachedUrlResolver();
+    try {
+      long hourAgo = System.currentTimeMillis() - 3600000;
+      store.put(url.toString(), new UrlContent(new UrlContent("stored", null, null), "\"v1\"", null, hourAgo));
+      CachedUrlResolver.setPageStore(store);
+
+      // stored contents are served while their revalidation is held up
+      assertEquals("stored", resolver.getContent(url).getContent());
+      assertEquals("stored", resolver.getContent(url).getContent());
+      release.countDown();
+      long deadline = System.currentTimeMillis() + 10000;
+      while (resolver.getContent(url).getAge() >= resolver.getFreshMillis()) {
+        assertTrue("stored content was not revalidated", System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      assertEquals("stored", resolver.getContent(url).getContent());
+      assertEquals(1, conditionalRequests.get());
+    }
+    finally {
+      release.countDown();
+      CachedUrlResolver.setPageStore(null);
+      store.close();
+      resolver.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedRevalidationKeepsStaleContent() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/failedRevalidation", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if (requests.incrementAndGet() == 1) {
+          exchange.getResponseHeaders().add("ETag", "\"v1\"");
+          respond(exchange, 200, "hello");
+        } else {
+          respond(exchange, 404, null);
+        }
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver().setFreshMillis(0).setFailureRetryMillis(60000);
+    assertEquals("hello", resolver.getContent(url).getContent());
+    assertEquals("hello", resolver.getContent(url).getContent());
+    assertEquals(2, requests.get());
+
+    // the failure is remembered without replacing the stale content
+    UrlContent stale = resolver.getContent(url);
+    assertEquals("hello", stale.getContent());
+    assertEquals("\"v1\"", stale.getETag());
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void testPartialReadKeepsEntirePage() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/entirePage", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        StringBuilder page = new StringBuilder("<id>" + requests.incrementAndGet() + "</id>\n");
+        for (int i = 0; i < 1000; i++) {
+          page.append("<p>line ").append(i).append("</p>\n");
+        }
+        respond(exchange, 200, page.toString());
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver().setFreshMillis(0);
+    UrlContent entirePage = resolver.getContent(url);
+    assertFalse(entirePage.isPartial());
+    ContentScraper scraper = new ContentScraper().require(Pattern.compile("<id>"), Pattern.compile("</id>"));
+    UrlContent refetched = resolver.getContent(url, scraper);
+    assertFalse(refetched.isPartial());
+    assertEquals(entirePage.getContentLength(), refetched.getContentLength());
+
+    // the entire page is still cached for requests that need all of it
+    UrlContent cached = new CachedUrlResolver().setFreshMillis(60000).getContent(url);
+    assertSame(refetched, cached);
+    assertEquals(2, requests.get());
+  }
+
+  /**
+   * Hold the first request until all callers have joined its fetch.
+   */
+  private URL serveHeld(String path, final AtomicInteger requests, final CountDownLatch release, final int status)
+    throws Exception {
+    return serve(path, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        respond(exchange, status, status == 200 ? "shared" : null);
+      }
+    });
+  }
+
+  private static List<Future<UrlContent>> getConcurrently(final CachedUrlResolver resolver, final URL url,
+                                                          ExecutorService executor, int callers) throws Exception {
+    long coalesced = CachedUrlResolver.getCoalescedRequests();
+    List<Future<UrlContent>> results = new ArrayList<Future<UrlContent>>();
+    for (int i = 0; i < callers; i++) {
+      results.add(executor.submit(new Callable<UrlContent>() {
+        @Override
+        public UrlContent call() throws Exception {
+          return resolver.getContent(url);
+        }
+      }));
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (CachedUrlResolver.getCoalescedRequests() - coalesced < callers - 1) {
+      assertTrue("callers did not join the fetch", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    return results;
+  }
+
+  @Test
+  public void testSingleFlight() throws Exception {
+    int callers = 8;
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    URL url = serveHeld("/singleFlight", requests, release, 200);
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<UrlContent>> results = getConcurrently(new CachedUrlResolver(), url, executor, callers);
+      release.countDown();
+      UrlContent content = results.get(0).get();
+      assertEquals("shared", content.getContent());
+      for (Future<UrlContent> result : results) {
+        assertSame(content, result.get());
+      }
+      assertEquals(1, requests.get());
+    }
+    finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSingleFlightFailure() throws Exception {
+    int callers = 8;
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    URL url = serveHeld("/singleFlightFailure", requests, release, 404);
+    ExecutorService executor = Executors.newFixedThreadPool(callers);
+    try {
+      List<Future<UrlContent>> results = getConcurrently(new CachedUrlResolver(), url, executor, callers);
+      release.countDown();
+      Throwable failure = null;
+      for (Future<UrlContent> result : results) {
+        try {
+          result.get();
+          fail("expected the shared failure");
+        }
+        catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+          assertSame(failure, e.getCause());
+        }
+      }
+      assertEquals(1, requests.get());
+    }
+    finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testResolversDoNotShareFetches() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    final URL url = serveHeld("/privateFetches", requests, release, 200);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final CachedUrlResolver resolver = new CachedUrlResolver();
+      final CachedUrlResolver credentialedResolver = new CachedUrlResolver().setCookies("session=secret");
+      Future<UrlContent> result = executor.submit(new Callable<UrlContent>() {
+        @Override
+        public UrlContent call() throws Exception {
+          return resolver.getContent(url);
+        }
+      });
+      Future<UrlContent> credentialedResult = executor.submit(new Callable<UrlContent>() {
+        @Override
+        public UrlContent call() throws Exception {
+          return credentialedResolver.getContent(url);
+        }
+      });
+      long deadline = System.currentTimeMillis() + 10000;
+      while (requests.get() < 2) {
+        assertTrue("each resolver fetches on its own", System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      release.countDown();
+      assertEquals("shared", result.get().getContent());
+      assertEquals("shared", credentialedResult.get().getContent());
+    }
+    finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testScopesDoNotShareContents() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/scoped", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        respond(exchange, 200, exchange.getRequestHeaders().getFirst("Cookie"));
+      }
+    });
+    File dir = new File(System.getProperty("java.io.tmpdir"), "CachedUrlResolverTest-" + System.nanoTime());
+    UrlContentStore store = new UrlContentStore(dir);
+    try {
+      CachedUrlResolver.setPageStore(store);
+      CachedUrlResolver tenantA = new CachedUrlResolver(Locale.getDefault(), "scopeA").setCookies("tenant=a");
+      CachedUrlResolver tenantB = new CachedUrlResolver(Locale.getDefault(), "scopeB").setCookies("tenant=b");
+      assertEquals("tenant=a", tenantA.getContent(url).getContent());
+      assertEquals("tenant=b", tenantB.getContent(url).getContent());
+      assertEquals(2, requests.get());
+
+      // resolvers of the same scope share contents, also through the page store
+      assertEquals("tenant=a", new CachedUrlResolver(Locale.getDefault(), "scopeA").getContent(url).getContent());
+      CacheManager.getInstance().getEhcache(tenantB.getContentCacheName()).removeAll();
+      assertEquals("tenant=b", new CachedUrlResolver(Locale.getDefault(), "scopeB").getContent(url).getContent());
+      assertEquals(2, requests.get());
+      assertEquals(null, store.get(url.toString()));
+    }
+    finally {
+      CachedUrlResolver.setPageStore(null);
+      store.close();
+    }
+  }
+
+  @Test
+  public void testRequestsAreCountedPerResolver() throws Exception {
+    URL url = serve("/counted", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "counted");
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver();
+    CachedUrlResolver otherResolver = new CachedUrlResolver();
+    resolver.getContent(url);
+    resolver.getContent(url);
+    otherResolver.getContent(url); // cached by the first resolver
+    assertEquals(2, resolver.getUrlRequests());
+    assertEquals(1, resolver.getNetworkRequests());
+    assertEquals(1, otherResolver.getUrlRequests());
+    assertEquals(0, otherResolver.getNetworkRequests());
+  }
+
+  @Test
+  public void testThrottlingIsNotCached() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/throttled", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange, requests.incrementAndGet() == 1 ? 429 : 200, requests.get() == 1 ? null : "hello");
+      }
+    });
+    HostScheduler hostScheduler = CachedUrlResolver.getHostScheduler(url.getHost());
+    long throttlePauseMillis = hostScheduler.getThrottlePauseMillis();
+    hostScheduler.setThrottlePauseMillis(0);
+    try {
+      CachedUrlResolver resolver = new CachedUrlResolver().setFailureRetryMillis(60000);
+      resolver.getTenantScheduler(url.getHost()).setThrottlePauseMillis(0);
+      try {
+        resolver.getContent(url);
+        fail("expected throttling");
+      }
+      catch (ProxyResolutionException e) {
+        assertTrue(e.getCause() instanceof HostThrottledException);
+      }
+      assertEquals("hello", resolver.getContent(url).getContent());
+      assertEquals(2, requests.get());
+    }
+    finally {
+      hostScheduler.setThrottlePauseMillis(throttlePauseMillis);
+    }
+  }
+
+  @Test
+  public void testUnavailableHostIsCached() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/unavailable", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        respond(exchange, 503, null);
+      }
+    });
+    HostScheduler hostScheduler = CachedUrlResolver.getHostScheduler(url.getHost());
+    long throttlePauseMillis = hostScheduler.getThrottlePauseMillis();
+    hostScheduler.setThrottlePauseMillis(0);
+    try {
+      CachedUrlResolver resolver = new CachedUrlResolver().setFailureRetryMillis(60000);
+      resolver.getTenantScheduler(url.getHost()).setThrottlePauseMillis(0);
+      for (int i = 0; i < 2; i++) {
+        try {
+          resolver.getContent(url);
+          fail("expected an unavailable host");
+        }
+        catch (ProxyResolutionException e) {
+          assertTrue(e.getCause() instanceof HostThrottledException);
+        }
+      }
+      assertEquals(1, requests.get());
+    }
+    finally {
+      hostScheduler.setThrottlePauseMillis(throttlePauseMillis);
+    }
+  }
+
+  @Test
+  public void testRepeatedThrottlingOpensCircuitBreaker() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    URL url = serve("/alwaysThrottled", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        respond(exchange, 429, null);
+      }
+    });
+    HostScheduler hostScheduler = CachedUrlResolver.getHostScheduler(url.getHost());
+    long throttlePauseMillis = hostScheduler.getThrottlePauseMillis();
+    hostScheduler.setThrottlePauseMillis(0);
+    try {
+      CachedUrlResolver resolver = new CachedUrlResolver();
+      resolver.getTenantScheduler(url.getHost()).setThrottlePauseMillis(0);
+      for (int i = 0; i <= HostCircuitBreaker.DEFAULT_FAILURE_THRESHOLD; i++) {
+        try {
+          resolver.getContent(url);
+          fail("expected throttling");
+        }
+        catch (ProxyResolutionException e) {
+          assertEquals(i < HostCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, e.getCause() instanceof HostThrottledException);
+        }
+      }
+      assertEquals(HostCircuitBreaker.DEFAULT_FAILURE_THRESHOLD, requests.get());
+    }
+    finally {
+      hostScheduler.setThrottlePauseMillis(throttlePauseMillis);
+    }
+  }
+
+  @Test
+  public void testHostKeysIgnoreCase() {
+    assertSame(CachedUrlResolver.getHostScheduler("www.Example.COM"),
+      CachedUrlResolver.getHostScheduler("www.example.com"));
+  }
+
+  @Test
+  public void testAsyncRequestsJoinWithoutAdmission() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    final URL url = serveHeld("/joinWithoutAdmission", requests, release, 200);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    final CachedUrlResolver resolver = new CachedUrlResolver();
+    HostScheduler hostScheduler = resolver.getTenantScheduler(url.getHost()).setMaxConcurrency(1);
+    try {
+      long coalesced = CachedUrlResolver.getCoalescedRequests();
+      Future<UrlContent> owner = executor.submit(new Callable<UrlContent>() {
+        @Override
+        public UrlContent call() throws Exception {
+          return resolver.getContent(url);
+        }
+      });
+      long deadline = System.currentTimeMillis() + 10000;
+      while (requests.get() < 1) {
+        assertTrue("owner did not fetch", System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      List<Future<UrlContent>> joiners = new ArrayList<Future<UrlContent>>();
+      for (int i = 0; i < 3; i++) {
+        joiners.add(resolver.getAsync(url));
+      }
+      assertEquals(0, hostScheduler.getPendingRequests());
+      assertEquals(3, CachedUrlResolver.getCoalescedRequests() - coalesced);
+      release.countDown();
+      UrlContent content = owner.get();
+      for (Future<UrlContent> joiner : joiners) {
+        assertSame(content, joiner.get());
+      }
+      assertEquals(1, requests.get());
+      assertFalse(hostScheduler.getActiveRequests() > 0);
+    }
+    finally {
+      release.countDown();
+      executor.shutdownNow();
+      resolver.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdownFailsQueuedFetches() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    URL heldUrl = serveHeld("/shutdownHeld", requests, release, 200);
+    URL queuedUrl = serve("/shutdownQueued", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        respond(exchange, 200, "queued");
+      }
+    });
+    CachedUrlResolver resolver = new CachedUrlResolver();
+    HostScheduler tenantScheduler = resolver.getTenantScheduler(heldUrl.getHost()).setMaxConcurrency(1);
+    try {
+      resolver.getAsync(heldUrl);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (requests.get() < 1) {
+        assertTrue("held fetch did not start", System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+      Future<UrlContent> queued = resolver.getAsync(queuedUrl);
+      assertEquals(1, tenantScheduler.getPendingRequests());
+      resolver.shutdown();
+      try {
+        queued.get(5, TimeUnit.SECONDS);
+        fail("expected the queued fetch to fail");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      release.countDown();
+      assertEquals("queued", resolver.getContent(queuedUrl).getContent());
+    }
+    finally {
+      release.countDown();
+      resolver.shutdown();
+    }
+  }
+}
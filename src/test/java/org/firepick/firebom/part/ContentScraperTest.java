@@ -0,0 +1,49 @@
+package org.firepick.firebom.part;
+/*
+   ContentScraperTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentScraperTest {
+    private static Pattern startPrice = Pattern.compile("class=\"price\">\\$");
+    private static Pattern endPrice = Pattern.compile("</");
+    private static Pattern startId = Pattern.compile("<title>");
+    private static Pattern endId = Pattern.compile(" ");
+
+    @Test
+    public void testIsComplete() {
+        ContentScraper scraper = new ContentScraper().require(startId, endId).require(startPrice, endPrice);
+        StringBuilder text = new StringBuilder("<html><head><title>X50K");
+        assertFalse(scraper.isComplete(text));
+        text.append(" part</title></head><body><span class=\"price\">$1");
+        assertFalse(scraper.isComplete(text));
+        text.append("2.34</span>");
+        assertTrue(scraper.isComplete(text));
+        text.append("<p>more</p>");
+        assertTrue(scraper.isComplete(text));
+    }
+
+    @Test
+    public void testNoFields() {
+        assertTrue(new ContentScraper().isComplete(""));
+    }
+}
@@ -0,0 +1,61 @@
+package org.firepick.firebom.part;
+/*
+   HostCircuitBreakerTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HostCircuitBreakerTest {
+    @Test
+    public void testOpenAndProbe() {
+        HostCircuitBreaker breaker = new HostCircuitBreaker("www.mcmaster.com")
+                .setFailureThreshold(3).setMinOpenMillis(100).setMaxOpenMillis(300);
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.recordFailure());
+        assertFalse(breaker.recordFailure());
+        assertTrue(breaker.recordFailure());
+        assertFalse(breaker.allowRequest());
+        assertFalse(breaker.recordFailure()); // already open
+        assertEquals(100, breaker.getOpenMillis());
+        breaker.recordProbeFailure();
+        assertEquals(200, breaker.getOpenMillis());
+        breaker.recordProbeFailure();
+        assertEquals(300, breaker.getOpenMillis());
+        breaker.recordSuccess();
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getConsecutiveFailures());
+    }
+
+    @Test
+    public void testUrlFailureBackoff() throws Exception {
+        UrlFailure failure = new UrlFailure(new IOException("test exception"), 50);
+        assertFalse(failure.isRetryDue());
+        Thread.sleep(60);
+        assertTrue(failure.isRetryDue());
+        failure = failure.retryFailed(new IOException("test exception"), 150);
+        assertEquals(2, failure.getFailures());
+        assertEquals(100, failure.getRetryDelay());
+        failure = failure.retryFailed(new IOException("test exception"), 150);
+        assertEquals(150, failure.getRetryDelay());
+        assertFalse(failure.isRetryDue());
+    }
+}
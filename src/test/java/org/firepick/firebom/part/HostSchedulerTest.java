@@ -0,0 +1,172 @@
+package org.firepick.firebom.part;
+/*
+   HostSchedulerTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HostSchedulerTest {
+    @Test
+    public void testAdaptiveConcurrency() {
+        HostScheduler scheduler = new HostScheduler("www.sparkfun.com").setMaxConcurrency(4);
+        assertEquals(2, scheduler.getConcurrencyLimit());
+        scheduler.recordResponse(100);
+        scheduler.recordResponse(100);
+        assertEquals(3, scheduler.getConcurrencyLimit());
+        scheduler.recordResponse(100);
+        scheduler.recordResponse(100);
+        scheduler.recordResponse(100);
+        assertEquals(4, scheduler.getConcurrencyLimit());
+        for (int i = 0; i < 10; i++) {
+            scheduler.recordResponse(100);
+        }
+        assertEquals(4, scheduler.getConcurrencyLimit()); // max
+        scheduler.recordResponse(1000);
+        assertEquals(3, scheduler.getConcurrencyLimit()); // latency rising
+        scheduler.recordThrottled(0);
+        assertEquals(1, scheduler.getConcurrencyLimit());
+        scheduler.recordThrottled(0);
+        assertEquals(1, scheduler.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        HostScheduler scheduler = new HostScheduler("www.adafruit.com")
+                .setMaxConcurrency(8).setRequestsPerSecond(20).setBurst(2);
+        long msStart = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            scheduler.acquire();
+            scheduler.release();
+        }
+        long msElapsed = System.currentTimeMillis() - msStart;
+        assertTrue(msElapsed > 150); // 2 burst + 4 at 50ms
+        assertEquals(0, scheduler.getActiveRequests());
+    }
+
+    private static Executor chain(final HostScheduler sharedScheduler, final Executor executor,
+                                  final ScheduledExecutorService timer) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable request) {
+                sharedScheduler.submit(request, executor, timer);
+            }
+        };
+    }
+
+    @Test
+    public void testChainedSubmit() throws Exception {
+        HostScheduler tenantScheduler = new HostScheduler("www.mcmaster.com").setBurst(1).setRequestsPerSecond(1000);
+        HostScheduler sharedScheduler = new HostScheduler("www.mcmaster.com").setBurst(1).setRequestsPerSecond(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            FutureTask<String> request = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "fetched";
+                }
+            });
+            tenantScheduler.submit(request, chain(sharedScheduler, executor, timer), timer);
+            assertEquals("fetched", request.get(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (tenantScheduler.getActiveRequests() + sharedScheduler.getActiveRequests() > 0) {
+                assertTrue("admissions were not released", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRejectedSubmit() throws Exception {
+        HostScheduler tenantScheduler = new HostScheduler("www.misumiusa.com");
+        HostScheduler sharedScheduler = new HostScheduler("www.misumiusa.com");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        executor.shutdown();
+        try {
+            FutureTask<String> request = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "fetched";
+                }
+            });
+            tenantScheduler.submit(request, chain(sharedScheduler, executor, timer), timer);
+            assertTrue(request.isCancelled());
+            assertEquals(0, tenantScheduler.getActiveRequests());
+            assertEquals(0, sharedScheduler.getActiveRequests());
+            assertEquals(0, sharedScheduler.getPendingRequests());
+        }
+        finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSubmit() throws Exception {
+        HostScheduler scheduler = new HostScheduler("www.digikey.com")
+                .setMaxConcurrency(2).setRequestsPerSecond(1000).setBurst(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(10);
+        try {
+            for (int i = 0; i < 10; i++) {
+                scheduler.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        int n = active.incrementAndGet();
+                        synchronized (maxActive) {
+                            maxActive.set(Math.max(n, maxActive.get()));
+                        }
+                        try {
+                            Thread.sleep(10);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        active.decrementAndGet();
+                        done.countDown();
+                    }
+                }, executor, timer);
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertTrue(maxActive.get() <= scheduler.getConcurrencyLimit());
+            assertEquals(0, scheduler.getPendingRequests());
+        }
+        finally {
+            executor.shutdownNow();
+            timer.shutdownNow();
+        }
+    }
+}
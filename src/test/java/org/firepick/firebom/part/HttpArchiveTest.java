@@ -0,0 +1,116 @@
+package org.firepick.firebom.part;
+/*
+   HttpArchiveTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.ProxyResolutionException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpArchiveTest {
+    @Test
+    public void testRecordReplay() throws Exception {
+        File dir = File.createTempFile("firebom", "archive");
+        dir.delete();
+        dir.deleteOnExit();
+        URL url = new URL("https://www.sparkfun.com/products/11040");
+        URL missingUrl = new URL("https://www.sparkfun.com/products/0");
+        URL throttledUrl = new URL("https://www.sparkfun.com/products/1");
+        URL unknownUrl = new URL("https://www.sparkfun.com/products/2");
+
+        HttpArchive recorder = new HttpArchive(dir, HttpArchive.Mode.RECORD);
+        Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        headers.put(null, Arrays.asList("HTTP/1.1 200 OK"));
+        headers.put("ETag", Arrays.asList("\"abc\""));
+        headers.put("Vary", Arrays.asList("Accept", "Accept-Encoding"));
+        recorder.record(url, 200, headers, new UrlContent("<h1>Pololu \u00d7</h1>", "\"abc\"", null), 120);
+        recorder.recordFailure(missingUrl, new FileNotFoundException("gone"), 5);
+        recorder.recordFailure(throttledUrl, new HostThrottledException("slow down", 429, 3000), 5);
+
+        HttpArchive player = new HttpArchive(dir, HttpArchive.Mode.REPLAY).setReplayLatency(true);
+        long msStart = System.currentTimeMillis();
+        UrlContent content = player.replay(url);
+        assertTrue(System.currentTimeMillis() - msStart >= 100);
+        assertEquals("<h1>Pololu \u00d7</h1>", content.getContent());
+        assertEquals("\"abc\"", content.getETag());
+        try {
+            player.replay(missingUrl);
+            fail();
+        }
+        catch (FileNotFoundException e) {
+            assertEquals("gone", e.getMessage());
+        }
+        try {
+            player.replay(throttledUrl);
+            fail();
+        }
+        catch (HostThrottledException e) {
+            assertEquals(429, e.getResponseCode());
+            assertEquals(3000, e.getRetryAfterMillis());
+        }
+        try {
+            player.replay(unknownUrl);
+            fail();
+        }
+        catch (IOException e) {
+            assertTrue(e instanceof FileNotFoundException);
+        }
+    }
+
+    @Test
+    public void testPartialRecording() throws Exception {
+        File dir = File.createTempFile("firebom", "archive");
+        dir.delete();
+        dir.deleteOnExit();
+        URL url = new URL("https://www.sparkfun.com/products/11041");
+        URL partialUrl = new URL("https://www.sparkfun.com/products/11042");
+        HttpArchive recorder = new HttpArchive(dir, HttpArchive.Mode.RECORD);
+        recorder.record(url, 200, null, new UrlContent("<h1>entire</h1>", null, null), 10);
+        recorder.record(url, 200, null, new UrlContent("<h1>", null, null, true), 10);
+        recorder.record(partialUrl, 200, null, new UrlContent("<h1>", null, null, true), 10);
+
+        HttpArchive player = new HttpArchive(dir, HttpArchive.Mode.REPLAY);
+        UrlContent content = player.replay(url);
+        assertEquals("<h1>entire</h1>", content.getContent());
+        assertFalse(content.isPartial());
+        assertTrue(player.replay(partialUrl).isPartial());
+
+        CachedUrlResolver.setArchive(player);
+        try {
+            new CachedUrlResolver().getContent(partialUrl);
+            fail("partial recording replayed as entire page");
+        }
+        catch (ProxyResolutionException e) {
+            assertTrue(e.getMessage().startsWith("Only part of the page"));
+        }
+        finally {
+            CachedUrlResolver.setArchive(null);
+        }
+    }
+}
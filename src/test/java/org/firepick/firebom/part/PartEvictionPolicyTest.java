@@ -0,0 +1,100 @@
+package org.firepick.firebom.part;
+/*
+   PartEvictionPolicyTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import net.sf.ehcache.Element;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartEvictionPolicyTest {
+  @Test
+  public void testPinning() throws Exception {
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part assembly = PartTester.createPart("assembly");
+    Part orphan = PartTester.createPart("orphan");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    assembly.setRequiredParts(Arrays.asList(new PartUsage(bracket, 1), new PartUsage(screw, 4)));
+
+    PartEvictionPolicy policy = new PartEvictionPolicy().setReachabilityInterval(0);
+    assertFalse(policy.isPinned(screw.getKey()));
+    policy.touchRoot(assembly);
+    assertTrue(policy.drain(1000));
+    assertTrue(policy.isPinned(screw.getKey()));
+    assertTrue(policy.isPinned(assembly.getKey()));
+    assertFalse(policy.isPinned(orphan.getKey()));
+    assertEquals(3, policy.getPinnedCount());
+    assertEquals(1, policy.getSubtreeSize(screw.getKey()));
+    assertEquals(2, policy.getSubtreeSize(bracket.getKey()));
+    assertEquals(4, policy.getSubtreeSize(assembly.getKey()));
+
+    policy.setRootExpiry(-1).invalidate();
+    assertTrue(policy.drain(1000));
+    assertFalse(policy.isPinned(screw.getKey()));
+    policy.shutdown();
+  }
+
+  @Test
+  public void testSelection() throws Exception {
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part orphanScrew = PartTester.createPart("orphanScrew");
+    Part orphanBracket = PartTester.createPart("orphanBracket");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    orphanBracket.setRequiredParts(Arrays.asList(new PartUsage(orphanScrew, 2)));
+    PartEvictionPolicy policy = new PartEvictionPolicy().setReachabilityInterval(0);
+    policy.touchRoot(bracket);
+    assertTrue(policy.drain(1000));
+
+    Element screwElement = new Element(screw.getKey(), screw);
+    Element bracketElement = new Element(bracket.getKey(), bracket);
+    Element orphanScrewElement = new Element(orphanScrew.getKey(), orphanScrew);
+    Element orphanBracketElement = new Element(orphanBracket.getKey(), orphanBracket);
+    Element[] sample = {screwElement, orphanBracketElement, bracketElement, orphanScrewElement};
+    assertSame(orphanScrewElement, policy.selectedBasedOnPolicy(sample, null));
+    assertSame(orphanBracketElement, policy.selectedBasedOnPolicy(sample, orphanScrewElement));
+
+    Element[] pinnedSample = {bracketElement, screwElement};
+    assertSame(screwElement, policy.selectedBasedOnPolicy(pinnedSample, null));
+    policy.shutdown();
+  }
+
+  @Test
+  public void testDeepGraph() throws Exception {
+    List<Part> parts = new ArrayList<Part>();
+    for (int i = 0; i < 50000; i++) {
+      parts.add(PartTester.createPart("deep" + i));
+    }
+    for (int i = parts.size() - 2; i >= 0; i--) {
+      parts.get(i).setRequiredParts(Arrays.asList(new PartUsage(parts.get(i + 1), 1)));
+    }
+    PartEvictionPolicy policy = new PartEvictionPolicy().setReachabilityInterval(0);
+    policy.touchRoot(parts.get(0));
+    assertTrue(policy.drain(10000));
+    assertEquals(parts.size(), policy.getPinnedCount());
+    assertEquals(parts.size(), policy.getSubtreeSize(parts.get(0).getKey()));
+    policy.shutdown();
+  }
+}
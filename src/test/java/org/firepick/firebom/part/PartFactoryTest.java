@@ -23,6 +23,7 @@ import net.sf.ehcache.config.CacheConfiguration;
 import org.firepick.firebom.RefreshableProxyTester;
 import org.firepick.firebom.bom.BOM;
 import org.firepick.firebom.bom.BOMRow;
+import org.firepick.firebom.exception.CyclicReferenceException;
 import org.firepick.firebom.exception.ProxyResolutionException;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -30,8 +31,19 @@ import org.junit.Test;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class PartFactoryTest {
   private static PartFactory partFactory;
@@ -151,6 +163,47 @@ public class PartFactoryTest {
       .testTitleCategory("Pet Supplies").getPart();
   }
 
+  @Test
+  public void testCreateParts() throws Exception {
+    URL url1 = new URL("http://mock?id:bulk1&cost:1.5");
+    URL url2 = new URL("http://mock?id:bulk2&cost:2.5");
+    Part part1 = partFactory.createPart(url1);
+    List<Part> parts = partFactory.createParts(Arrays.asList(url1, url2, url1));
+    assertEquals(3, parts.size());
+    assertEquals(part1, parts.get(0));
+    assertEquals("bulk2", parts.get(1).getId());
+    assertEquals(part1, parts.get(2));
+    assertEquals(parts.get(1), partFactory.createPart(url2));
+  }
+
+  @Test
+  public void testCreatePartOnce() throws Exception {
+    final String child = URLEncoder.encode("http://mock?id:once2&cost:2", "utf-8");
+    final URL url = new URL("http://mock?id:once1&require:" + child);
+    final Part[] parts = new Part[8];
+    Thread[] threads = new Thread[parts.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          parts[index] = partFactory.createPart(url);
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (Part part : parts) {
+      assertEquals(parts[0], part);
+    }
+    assertEquals(partFactory.createPart(new URL(URLDecoder.decode(child, "utf-8"))),
+      parts[0].getRequiredParts().get(0).getPart());
+  }
+
   @Test
   public void testEstimateQuantity() {
     assertEquals(48, PartFactory.estimateQuantity(12.24d, 0.26));
@@ -342,4 +395,192 @@ public class PartFactoryTest {
       .testTitle("Unsupported FireBOM vendor http://bit.ly/16jPAOr");
   }
 
+  @Test
+  public void testIsolatedFactories() throws Exception {
+    PartFactory tenantFactory = new PartFactory("firebom-test-tenant", Locale.getDefault());
+    try {
+      assertNotSame(tenantFactory.getRefreshExecutor(), partFactory.getRefreshExecutor());
+      assertNotSame(tenantFactory.getPartIndex(), partFactory.getPartIndex());
+      assertNotSame(tenantFactory.getVendorRegistry(), partFactory.getVendorRegistry());
+
+      URL url = new URL("http://mock?id:tenant1&cost:1");
+      Part tenantPart = tenantFactory.createPart(url);
+      Part defaultPart = partFactory.createPart(url);
+      assertNotSame(tenantPart, defaultPart);
+      assertEquals(tenantFactory, tenantPart.getPartFactory());
+      assertEquals(partFactory, defaultPart.getPartFactory());
+
+      CacheManager cacheManager = CacheManager.getInstance();
+      CacheConfiguration defaultConfiguration =
+        cacheManager.getEhcache(PartFactory.DEFAULT_PART_CACHE).getCacheConfiguration();
+      CacheConfiguration tenantConfiguration = cacheManager.getEhcache("firebom-test-tenant").getCacheConfiguration();
+      assertEquals(defaultConfiguration.getTimeToLiveSeconds(), tenantConfiguration.getTimeToLiveSeconds());
+      assertEquals(defaultConfiguration.getTimeToIdleSeconds(), tenantConfiguration.getTimeToIdleSeconds());
+    }
+    finally {
+      tenantFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdownStopsFetchThreads() throws Exception {
+    PartFactory tenantFactory = new PartFactory("firebom-test-shutdown", Locale.getDefault());
+    ExecutorService fetchExecutor = tenantFactory.getUrlResolver().getFetchExecutor();
+    tenantFactory.shutdown();
+    assertTrue(fetchExecutor.isShutdown());
+  }
+
+  @Test
+  public void testIsolatedVendorPolicies() throws Exception {
+    PartFactory tenantFactory = new PartFactory("firebom-test-policy", Locale.getDefault());
+    try {
+      String host = "www.mcmaster.com";
+      HostScheduler tenantScheduler = tenantFactory.getUrlResolver().getTenantScheduler(host);
+      assertNotSame(tenantScheduler, partFactory.getUrlResolver().getTenantScheduler(host));
+      assertEquals(1, tenantScheduler.getMaxConcurrency());
+
+      // a looser policy of one factory neither loosens the shared ceiling nor another factory's admission
+      tenantFactory.getVendorRegistry().register(new SimplePartVendor(McMasterCarrPart.class, host)
+        .setPolicy(new VendorPolicy().setMaxConcurrency(3).setCookies("tenant=1")));
+      assertEquals(3, tenantScheduler.getMaxConcurrency());
+      assertEquals(1, partFactory.getUrlResolver().getTenantScheduler(host).getMaxConcurrency());
+      assertEquals(1, CachedUrlResolver.getHostScheduler(host).getMaxConcurrency());
+    }
+    finally {
+      tenantFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testCrossThreadCycle() throws Exception {
+    final PartFactory tenantFactory = new PartFactory("firebom-test-cycle", Locale.getDefault());
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    tenantFactory.getVendorRegistry().register(new PartVendor() {
+      @Override
+      public List<String> getHosts() {
+        return Arrays.asList("cycle.test");
+      }
+
+      @Override
+      public VendorPolicy getPolicy() {
+        return new VendorPolicy();
+      }
+
+      @Override
+      public Part createPart(PartFactory partFactory, URL url, CachedUrlResolver urlResolver) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS); // both parts are being created
+          String usedPath = "/a".equals(url.getPath()) ? "/b" : "/a";
+          partFactory.createPart(new URL(url, usedPath));
+        }
+        catch (RuntimeException e) {
+          throw e;
+        }
+        catch (Exception e) {
+          throw new ProxyResolutionException(url.toString(), e);
+        }
+        throw new IllegalStateException("cycle not detected: " + url);
+      }
+    });
+    try {
+      final RuntimeException[] errors = new RuntimeException[2];
+      Thread[] threads = new Thread[errors.length];
+      for (int i = 0; i < threads.length; i++) {
+        final int index = i;
+        final URL url = new URL(i == 0 ? "http://cycle.test/a" : "http://cycle.test/b");
+        threads[i] = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              tenantFactory.createPart(url);
+            }
+            catch (RuntimeException e) {
+              errors[index] = e;
+            }
+          }
+        });
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join(10000);
+        assertFalse("part creation deadlocked", thread.isAlive());
+      }
+      for (RuntimeException error : errors) {
+        assertTrue(String.valueOf(error), error instanceof CyclicReferenceException);
+      }
+    }
+    finally {
+      tenantFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnstartedBatchPartIsNotACycle() throws Exception {
+    final PartFactory tenantFactory = new PartFactory("firebom-test-steal", Locale.getDefault());
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    tenantFactory.getVendorRegistry().register(new PartVendor() {
+      @Override
+      public List<String> getHosts() {
+        return Arrays.asList("steal.test");
+      }
+
+      @Override
+      public VendorPolicy getPolicy() {
+        return new VendorPolicy();
+      }
+
+      @Override
+      public Part createPart(PartFactory partFactory, URL url, CachedUrlResolver urlResolver) {
+        try {
+          if ("/x".equals(url.getPath())) {
+            return PartTester.createPart("x");
+          }
+          barrier.await(10, TimeUnit.SECONDS); // /a and /b are being created, /x is claimed but not started
+          String usedPath = "/a".equals(url.getPath()) ? "/b" : "/x";
+          partFactory.createPart(new URL(url, usedPath));
+          return PartTester.createPart(url.getPath().substring(1));
+        }
+        catch (RuntimeException e) {
+          throw e;
+        }
+        catch (Exception e) {
+          throw new ProxyResolutionException(url.toString(), e);
+        }
+      }
+    });
+    try {
+      final List<List<URL>> batches = Arrays.asList(
+          Arrays.asList(new URL("http://steal.test/a"), new URL("http://steal.test/x")),
+          Arrays.asList(new URL("http://steal.test/b")));
+      final RuntimeException[] errors = new RuntimeException[batches.size()];
+      Thread[] threads = new Thread[errors.length];
+      for (int i = 0; i < threads.length; i++) {
+        final int index = i;
+        threads[i] = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              tenantFactory.createParts(batches.get(index));
+            }
+            catch (RuntimeException e) {
+              errors[index] = e;
+            }
+          }
+        });
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join(10000);
+        assertFalse("part creation deadlocked", thread.isAlive());
+      }
+      for (RuntimeException error : errors) {
+        assertNull(String.valueOf(error), error);
+      }
+      assertNotNull(tenantFactory.getCachedPart(new URL("http://steal.test/x")));
+    }
+    finally {
+      tenantFactory.shutdown();
+    }
+  }
+
 }
@@ -0,0 +1,174 @@
+package org.firepick.firebom.part;
+/*
+   PartGraphOrderTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.CyclicReferenceException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartGraphOrderTest {
+  @Test
+  public void testReorder() throws Exception {
+    PartGraphOrder order = new PartGraphOrder();
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part assembly = PartTester.createPart("assembly");
+    order.setEdges(screw, Collections.<Part>emptyList());
+    order.setEdges(bracket, Collections.<Part>emptyList());
+    assertTrue(order.isBefore(screw, bracket));
+
+    // edges against the current order move only the affected parts
+    order.setEdges(assembly, Arrays.asList(bracket));
+    assertTrue(order.isBefore(assembly, bracket));
+    order.setEdges(bracket, Arrays.asList(screw));
+    assertTrue(order.isBefore(assembly, bracket));
+    assertTrue(order.isBefore(bracket, screw));
+  }
+
+  @Test
+  public void testCycle() throws Exception {
+    PartGraphOrder order = new PartGraphOrder();
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part assembly = PartTester.createPart("assembly");
+    Part nut = PartTester.createPart("nut");
+    order.setEdges(assembly, Arrays.asList(bracket));
+    order.setEdges(bracket, Arrays.asList(screw));
+    try {
+      order.setEdges(screw, Arrays.asList(nut, assembly));
+      fail("expected CyclicReferenceException");
+    }
+    catch (CyclicReferenceException e) {
+      // expected
+    }
+    try {
+      order.setEdges(screw, Arrays.asList(screw));
+      fail("expected CyclicReferenceException");
+    }
+    catch (CyclicReferenceException e) {
+      // expected
+    }
+
+    // the rejected edges left no trace
+    order.setEdges(nut, Arrays.asList(screw));
+    assertTrue(order.isBefore(nut, screw));
+    order.setEdges(bracket, Collections.<Part>emptyList());
+    order.setEdges(screw, Arrays.asList(assembly));
+    assertTrue(order.isBefore(screw, assembly));
+    assertFalse(order.isBefore(bracket, assembly));
+  }
+
+  @Test
+  public void testDeepGraph() throws Exception {
+    PartGraphOrder order = new PartGraphOrder();
+    List<Part> parts = new ArrayList<Part>();
+    for (int i = 0; i < 50000; i++) {
+      parts.add(PartTester.createPart("p" + i));
+    }
+    for (int i = 0; i + 1 < parts.size(); i++) {
+      order.setEdges(parts.get(i), Arrays.asList(parts.get(i + 1)));
+    }
+    // closing the chain searches it end to end without recursion
+    try {
+      order.setEdges(parts.get(parts.size() - 1), Arrays.asList(parts.get(0)));
+      fail("expected CyclicReferenceException");
+    }
+    catch (CyclicReferenceException e) {
+      assertTrue(e.getMessage().contains("id:p49999"));
+    }
+  }
+
+  @Test
+  public void testCyclicRequiredParts() throws Exception {
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    try {
+      screw.setSourcePartUsage(new PartUsage(bracket, 1));
+      fail("expected CyclicReferenceException");
+    }
+    catch (CyclicReferenceException e) {
+      // expected
+    }
+    assertEquals(null, screw.getSourcePartUsage());
+    assertEquals(1, bracket.getRequiredParts().size());
+  }
+
+  @Test
+  public void testRemove() throws Exception {
+    PartGraphOrder order = new PartGraphOrder();
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part assembly = PartTester.createPart("assembly");
+    order.setEdges(assembly, Arrays.asList(bracket));
+    order.setEdges(bracket, Arrays.asList(screw));
+
+    // an evicted part no longer links its neighbours
+    order.remove(bracket);
+    assertEquals(null, bracket.graphNode);
+    order.setEdges(screw, Arrays.asList(assembly));
+    assertTrue(order.isBefore(screw, assembly));
+    order.remove(bracket);
+  }
+
+  @Test
+  public void testLinkDeserialized() throws Exception {
+    Part screw = PartTester.createPart("screw");
+    Part bracket = PartTester.createPart("bracket");
+    Part assembly = PartTester.createPart("assembly");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    assembly.setSourcePartUsage(new PartUsage(bracket, 1));
+
+    // parts read back from a disk store have no graph nodes until they are linked
+    Part assemblyCopy = copy(assembly);
+    Part bracketCopy = assemblyCopy.getSourcePart();
+    Part screwCopy = bracketCopy.getRequiredParts().get(0).getPart();
+    assertEquals(null, assemblyCopy.graphNode);
+    PartGraphOrder order = new PartGraphOrder();
+    order.link(assemblyCopy);
+    assertTrue(order.isBefore(assemblyCopy, bracketCopy));
+    assertTrue(order.isBefore(bracketCopy, screwCopy));
+    try {
+      order.setEdges(screwCopy, Arrays.asList(assemblyCopy));
+      fail("expected CyclicReferenceException");
+    }
+    catch (CyclicReferenceException e) {
+      // expected
+    }
+  }
+
+  private static Part copy(Part part) throws Exception {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(part);
+    oos.close();
+    return (Part) new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray())).readObject();
+  }
+}
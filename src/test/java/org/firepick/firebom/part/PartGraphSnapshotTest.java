@@ -0,0 +1,185 @@
+package org.firepick.firebom.part;
+/*
+   PartGraphSnapshotTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.firepick.firebom.exception.CyclicReferenceException;
+import org.firepick.firebom.exception.ProxyResolutionException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartGraphSnapshotTest {
+  private static boolean isUnexpectedTypeInitialized;
+
+  /**
+   * A snapshot may name any class as the type of a refresh exception.
+   */
+  public static class UnexpectedException extends IllegalStateException {
+    private static final long serialVersionUID = 4655539589874943384L;
+
+    static {
+      isUnexpectedTypeInitialized = true;
+    }
+
+    public UnexpectedException(String message) {
+      super(message);
+    }
+  }
+
+  @Test
+  public void testWriteRead() throws Exception {
+    Part screw = PartTester.createPart("screw").setPackageCost(0.25);
+    Part bracket = PartTester.createPart("bracket");
+    Part plate = PartTester.createPart("plate");
+    Part assembly = PartTester.createPart("assembly");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    plate.setRequiredParts(Arrays.asList(new PartUsage(screw, 4)));
+    List<PartUsage> assemblyParts = new ArrayList<PartUsage>();
+    assemblyParts.add(new PartUsage(bracket, 1));
+    assemblyParts.add(new PartUsage(plate, 1));
+    assembly.setRequiredParts(assemblyParts);
+    assertEquals(1.5, assembly.getPackageCost(), 0.001);
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    assertEquals(4, PartGraphSnapshot.write(Arrays.asList(assembly), bos));
+
+    PartFactory partFactory = new PartFactory("firebom-snapshot-test", Locale.getDefault());
+    List<Part> parts = PartGraphSnapshot.read(new ByteArrayInputStream(bos.toByteArray()), partFactory);
+    assertEquals(4, parts.size());
+    Part assembly2 = parts.get(0);
+    assertEquals("assembly", assembly2.getId());
+    assertEquals(1.5, assembly2.getPackageCost(), 0.001);
+    Part bracket2 = assembly2.getRequiredParts().get(0).getPart();
+    Part plate2 = assembly2.getRequiredParts().get(1).getPart();
+    assertSame(bracket2.getRequiredParts().get(0).getPart(), plate2.getRequiredParts().get(0).getPart());
+    assertEquals(4, plate2.getRequiredParts().get(0).getQuantity(), 0);
+    assertEquals(screw.getRefreshDueMillis(), bracket2.getRequiredParts().get(0).getPart().getRefreshDueMillis());
+    assertNull(assembly2.getSourcePart());
+    assertSame(assembly2, partFactory.getCachedPart(assembly.getUrl()));
+    partFactory.shutdown();
+  }
+
+  @Test
+  public void testExportImport() throws Exception {
+    Part screw = PartTester.createPart("export-screw").setPackageCost(0.25);
+    Part bracket = PartTester.createPart("export-bracket");
+    bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PartGraphSnapshot.write(Arrays.asList(bracket), bos);
+
+    PartFactory partFactory = new PartFactory("firebom-snapshot-export-test", Locale.getDefault());
+    PartFactory partFactory2 = new PartFactory("firebom-snapshot-import-test", Locale.getDefault());
+    try {
+      assertEquals(2, partFactory.importParts(new ByteArrayInputStream(bos.toByteArray())));
+      ByteArrayOutputStream exported = new ByteArrayOutputStream();
+      assertEquals(2, partFactory.exportParts(exported));
+      assertEquals(2, partFactory2.importParts(new ByteArrayInputStream(exported.toByteArray())));
+      Part bracket2 = partFactory2.getCachedPart(bracket.getUrl());
+      assertEquals(0.5, bracket2.getPackageCost(), 0.001);
+      assertSame(partFactory2.getCachedPart(screw.getUrl()), bracket2.getRequiredParts().get(0).getPart());
+    }
+    finally {
+      partFactory.shutdown();
+      partFactory2.shutdown();
+    }
+  }
+
+  @Test
+  public void testRefreshExceptionType() throws Exception {
+    Part part = new Part(null) {
+      @Override
+      protected void refreshFromRemote() throws Exception {
+        throw new CyclicReferenceException("Cyclic part reference detected: http://mock?id:cyclic");
+      }
+    };
+    part.setUrl(new URL("http://mock?id:cyclic"));
+    try {
+      part.refresh();
+      fail();
+    }
+    catch (CyclicReferenceException e) {
+      // expected
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PartGraphSnapshot.write(Arrays.asList(part), bos);
+
+    PartFactory partFactory = new PartFactory("firebom-snapshot-exception-test", Locale.getDefault());
+    try {
+      Part part2 = PartGraphSnapshot.read(new ByteArrayInputStream(bos.toByteArray()), partFactory).get(0);
+      assertTrue(part2.getRefreshException() instanceof CyclicReferenceException);
+      assertEquals(part.getRefreshException().getMessage(), part2.getRefreshException().getMessage());
+    }
+    finally {
+      partFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testUnexpectedRefreshExceptionType() throws Exception {
+    Part part = PartTester.createPart("unexpected");
+    part.setRefreshException(new ProxyResolutionException("vendor is down"));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    PartGraphSnapshot.write(Arrays.asList(part), bos);
+    byte[] bytes = replace(bos.toByteArray(), utf(ProxyResolutionException.class.getName()),
+      utf(PartGraphSnapshotTest.class.getName() + "$UnexpectedException"));
+
+    PartFactory partFactory = new PartFactory("firebom-snapshot-unexpected-test", Locale.getDefault());
+    try {
+      Part part2 = PartGraphSnapshot.read(new ByteArrayInputStream(bytes), partFactory).get(0);
+      assertSame(ProxyResolutionException.class, part2.getRefreshException().getClass());
+      assertEquals("vendor is down", part2.getRefreshException().getMessage());
+      assertFalse(isUnexpectedTypeInitialized);
+    }
+    finally {
+      partFactory.shutdown();
+    }
+  }
+
+  private static byte[] utf(String value) throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    new DataOutputStream(bos).writeUTF(value);
+    return bos.toByteArray();
+  }
+
+  private static byte[] replace(byte[] bytes, byte[] target, byte[] replacement) {
+    for (int i = 0; i + target.length <= bytes.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + target.length), target)) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(bytes, 0, i);
+        bos.write(replacement, 0, replacement.length);
+        bos.write(bytes, i + target.length, bytes.length - i - target.length);
+        return bos.toByteArray();
+      }
+    }
+    throw new AssertionError("not found");
+  }
+}
@@ -0,0 +1,90 @@
+package org.firepick.firebom.part;
+/*
+   PartIndexTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import net.sf.ehcache.Element;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartIndexTest {
+  private static Part createPart(String url, String id, String title, String vendor) throws Exception {
+    Part part = new Part(null);
+    part.setUrl(new URL(url));
+    part.setId(id);
+    part.setTitle(title);
+    part.setVendor(vendor);
+    return part;
+  }
+
+  @Test
+  public void testFind() throws Exception {
+    PartIndex index = new PartIndex();
+    Part screw = createPart("http://www.mcmaster.com/#91292A113", "91292A113", "M3 socket head cap screw, 10mm long", "www.mcmaster.com");
+    Part nut = createPart("http://www.mcmaster.com/#90591A250", "90591A250", "M3 hex nut", "www.mcmaster.com");
+    Part motor = createPart("https://www.sparkfun.com/products/9238", "ROB-09238", "Stepper Motor with Cable", "www.sparkfun.com");
+    index.add(screw);
+    index.add(nut);
+    index.add(motor);
+    assertEquals(3, index.size());
+
+    assertEquals(Arrays.asList(nut.getUrl(), screw.getUrl()), index.find("m3", 0, 10));
+    assertEquals(Arrays.asList(screw.getUrl()), index.find("Cap SCREW", 0, 10));
+    assertEquals(Arrays.asList(motor.getUrl()), index.find("rob-09238", 0, 10));
+    assertEquals(Arrays.asList(motor.getUrl()), index.find("sparkfun", 0, 10));
+    assertTrue(index.find("m3 motor", 0, 10).isEmpty());
+    assertTrue(index.find("washer", 0, 10).isEmpty());
+
+    List<URL> all = index.find(null, 0, 10);
+    assertEquals(3, all.size());
+    assertEquals(Arrays.asList(all.get(1), all.get(2)), index.find("", 1, 10));
+    assertEquals(Arrays.asList(nut.getUrl()), index.find("mcmaster", 0, 1));
+    assertEquals(Arrays.asList(screw.getUrl()), index.find("mcmaster", 1, 1));
+
+    screw.setTitle("M4 socket head cap screw, 10mm long");
+    index.update(screw);
+    assertEquals(Arrays.asList(nut.getUrl()), index.find("m3", 0, 10));
+    assertEquals(Arrays.asList(screw.getUrl()), index.find("m4 10mm", 0, 10));
+
+    index.remove(nut.getUrl());
+    assertTrue(index.find("nut", 0, 10).isEmpty());
+    index.update(nut);
+    assertTrue(index.find("nut", 0, 10).isEmpty());
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void testEvictionUnlinksGraph() throws Exception {
+    PartGraphOrder order = new PartGraphOrder();
+    PartIndex index = new PartIndex(order);
+    Part screw = createPart("http://www.mcmaster.com/#91292A113", "91292A113", "M3 screw", "www.mcmaster.com");
+    Part bracket = createPart("http://mock?id:bracket", "bracket", "bracket", "mock");
+    order.setEdges(bracket, Arrays.asList(screw));
+    index.notifyElementPut(null, new Element(PartKey.of(bracket.getUrl()), bracket));
+    assertEquals(1, index.size());
+
+    index.notifyElementEvicted(null, new Element(PartKey.of(bracket.getUrl()), bracket));
+    assertEquals(0, index.size());
+    assertNull(bracket.graphNode);
+  }
+}
@@ -0,0 +1,68 @@
+package org.firepick.firebom.part;
+/*
+   PartKeyTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartKeyTest {
+  @Test
+  public void testCanonical() throws Exception {
+    PartKey key = PartKey.of(new URL("http://www.Shapeways.com/model/Part?ID=7"));
+    assertEquals("http://www.shapeways.com/model/Part?ID=7", key.toString());
+    assertSame(key, PartKey.of(new URL("http://www.shapeways.com/model/Part?ID=7")));
+    assertNotSame(key, PartKey.of(new URL("http://www.shapeways.com/model/part?ID=7")));
+    assertEquals(key.toString().hashCode(), key.hashCode());
+  }
+
+  @Test
+  public void testCanonicalUserInfo() throws Exception {
+    assertEquals("http://Foo@foo.com/Foo", PartKey.of(new URL("http://Foo@Foo.com/Foo")).toString());
+    assertEquals("https://www.sparkfun.com:8443/products/9238?a=B#Top",
+        PartKey.of(new URL("https://WWW.SparkFun.com:8443/products/9238?a=B#Top")).toString());
+  }
+
+  @Test
+  public void testOrder() throws Exception {
+    PartKey key1 = PartKey.of(new URL("http://mock?id:a"));
+    PartKey key2 = PartKey.of(new URL("http://mock?id:b"));
+    assertTrue(key1.compareTo(key2) < 0);
+    assertTrue(key2.compareTo(key1) > 0);
+    assertEquals(0, key1.compareTo(PartKey.of(new URL("http://mock?id:a"))));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    PartKey key = PartKey.of(new URL("http://mock?id:serialized"));
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream oos = new ObjectOutputStream(bos);
+    oos.writeObject(key);
+    oos.close();
+    ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    assertSame(key, ois.readObject());
+  }
+}
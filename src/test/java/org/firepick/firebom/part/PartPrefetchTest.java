@@ -0,0 +1,113 @@
+package org.firepick.firebom.part;
+/*
+   PartPrefetchTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class PartPrefetchTest {
+  private static class CountingPartFactory extends PartFactory {
+    private final AtomicInteger syncFetches = new AtomicInteger();
+    private final AtomicInteger asyncFetches = new AtomicInteger();
+
+    CountingPartFactory() {
+      super("PartPrefetchTest", Locale.getDefault());
+    }
+
+    @Override
+    public UrlContent urlContent(URL url, ContentScraper scraper) {
+      syncFetches.incrementAndGet();
+      return new UrlContent("fetched", null, null);
+    }
+
+    @Override
+    public Future<UrlContent> urlContentAsync(URL url, ContentScraper scraper) {
+      asyncFetches.incrementAndGet();
+      FutureTask<UrlContent> task = new FutureTask<UrlContent>(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, new UrlContent("prefetched", null, null));
+      task.run();
+      return task;
+    }
+  }
+
+  private static class TitlePart extends Part {
+    private static final long serialVersionUID = 3949370225209195438L;
+
+    TitlePart(PartFactory partFactory) throws Exception {
+      super(partFactory);
+      setUrl(new URL("http://mock?id:title"));
+    }
+
+    @Override
+    protected void refreshFromRemoteContent(String content) {
+      setTitle(content);
+    }
+  }
+
+  @Test
+  public void testPrefetchIsUsed() throws Exception {
+    CountingPartFactory partFactory = new CountingPartFactory();
+    try {
+      Part part = new TitlePart(partFactory).prefetch();
+      part.refresh();
+      assertEquals("prefetched", part.getTitle());
+      assertEquals(1, partFactory.asyncFetches.get());
+      assertEquals(0, partFactory.syncFetches.get());
+    }
+    finally {
+      partFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testOldPrefetchIsDropped() throws Exception {
+    CountingPartFactory partFactory = new CountingPartFactory();
+    try {
+      partFactory.getUrlResolver().setFreshMillis(-1);
+      Part part = new TitlePart(partFactory).prefetch();
+      part.refresh();
+      assertEquals("fetched", part.getTitle());
+      assertEquals(1, partFactory.syncFetches.get());
+    }
+    finally {
+      partFactory.shutdown();
+    }
+  }
+
+  @Test
+  public void testSelfFetchingPartsDoNotPrefetch() throws Exception {
+    CountingPartFactory partFactory = new CountingPartFactory();
+    try {
+      URL url = new URL("http://www.mcmaster.com/#91290A115");
+      new McMasterCarrPart(partFactory, url, partFactory.getUrlResolver()).prefetch();
+      assertEquals(0, partFactory.asyncFetches.get());
+    }
+    finally {
+      partFactory.shutdown();
+    }
+  }
+}
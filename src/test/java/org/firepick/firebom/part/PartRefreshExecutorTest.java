@@ -0,0 +1,134 @@
+package org.firepick.firebom.part;
+/*
+   PartRefreshExecutorTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartRefreshExecutorTest {
+  @Test
+  public void testRefreshAndDrain() throws Exception {
+    final AtomicInteger refreshCount = new AtomicInteger();
+    PartRefreshExecutor executor = new PartRefreshExecutor(4);
+    for (int i = 0; i < 20; i++) {
+      Part part = new Part(null) {
+        @Override
+        protected void refreshFromRemote() throws Exception {
+          Thread.sleep(20);
+          refreshCount.incrementAndGet();
+        }
+      };
+      part.setUrl(new URL("http://mock?id:refresh" + i));
+      assertTrue(executor.submit(part));
+      assertFalse(executor.submit(part));
+    }
+    assertEquals(20, executor.getQueueDepth());
+    assertFalse(executor.isRunning());
+
+    executor.start();
+    assertTrue(executor.drain(5000));
+    assertEquals(20, refreshCount.get());
+    assertEquals(20, executor.getCompletedRefreshes());
+    assertEquals(0, executor.getFailedRefreshes());
+    assertEquals(0, executor.getQueueDepth());
+    assertTrue(executor.getThroughput() > 0);
+
+    executor.shutdown();
+    assertFalse(executor.isRunning());
+    assertTrue(executor.drain(0));
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    PartRefreshExecutor executor = new PartRefreshExecutor(1).start();
+    Part part = new Part(null) {
+      @Override
+      protected void refreshFromRemote() throws Exception {
+        throw new Exception("vendor is down");
+      }
+    };
+    part.setUrl(new URL("http://mock?id:refreshFailure"));
+    executor.submit(part);
+    assertTrue(executor.drain(5000));
+    assertEquals(1, executor.getFailedRefreshes());
+    assertTrue(executor.isRunning());
+    executor.shutdown();
+  }
+
+  @Test
+  public void testShutdownFinishesActiveRefresh() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    PartRefreshExecutor executor = new PartRefreshExecutor(2).start();
+    Part part = new Part(null) {
+      @Override
+      protected void refreshFromRemote() throws Exception {
+        started.countDown();
+        Thread.sleep(200);
+      }
+    };
+    part.setUrl(new URL("http://mock?id:refreshShutdown"));
+    executor.submit(part);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    executor.shutdown();
+    assertFalse(executor.isRunning());
+    assertEquals(1, executor.getCompletedRefreshes());
+    assertEquals(0, executor.getFailedRefreshes());
+    assertNull(part.getRefreshException());
+    assertTrue(part.isResolved());
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    PartRefreshExecutor executor = new PartRefreshExecutor(1);
+    Part older = createResolvedPart("older");
+    Thread.sleep(5);
+    Part newer = createResolvedPart("newer");
+    Part unresolved = PartTester.createPart("unresolved");
+    assertTrue(older.getRefreshDueMillis() < newer.getRefreshDueMillis());
+
+    executor.submit(newer);
+    executor.submit(older);
+    executor.submit(unresolved);
+    assertTrue(executor.isQueued(older));
+    List<Part> queue = executor.getQueuedParts();
+    assertEquals(3, queue.size());
+    assertEquals(unresolved, queue.get(0));
+    assertEquals(older, queue.get(1));
+    assertEquals(newer, queue.get(2));
+
+    executor.shutdown();
+    assertEquals(0, executor.getQueueDepth());
+    assertFalse(executor.isQueued(older));
+  }
+
+  private static Part createResolvedPart(String id) throws Exception {
+    Part part = PartTester.createPart(id);
+    part.refresh();
+    assertTrue(part.isResolved());
+    return part;
+  }
+}
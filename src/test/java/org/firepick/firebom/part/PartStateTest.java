@@ -0,0 +1,77 @@
+package org.firepick.firebom.part;
+/*
+   PartStateTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartStateTest {
+  private static class BlockingPart extends Part {
+    private static final long serialVersionUID = 8885534603421981971L;
+    private final CountDownLatch scraped = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    BlockingPart(URL url) {
+      super(null);
+      setUrl(url);
+    }
+
+    @Override
+    protected void refreshFromRemote() throws Exception {
+      setId("new");
+      setTitle("new title");
+      setPackageCost(2d);
+      assertEquals("new", getId()); // the refreshing thread sees its own changes
+      scraped.countDown();
+      release.await();
+    }
+  }
+
+  @Test
+  public void testRefreshPublishesAtomically() throws Exception {
+    final BlockingPart part = new BlockingPart(new URL("http://mock?id:blocking"));
+    part.setId("old").setTitle("old title").setPackageCost(1d);
+    Thread refresher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        part.refresh();
+      }
+    });
+    refresher.start();
+    assertTrue(part.scraped.await(5, TimeUnit.SECONDS));
+
+    // readers neither block nor see a half-refreshed part
+    assertEquals("old", part.getId());
+    assertEquals("old title", part.getTitle());
+    assertEquals(1d, part.getPackageCost(), 0);
+    assertFalse(part.isResolved());
+
+    part.release.countDown();
+    refresher.join();
+    assertEquals("new", part.getId());
+    assertEquals("new title", part.getTitle());
+    assertEquals(2d, part.getPackageCost(), 0);
+    assertTrue(part.isResolved());
+  }
+}
@@ -28,6 +28,27 @@ public class PartTester {
   private URL url;
   private Part part;
 
+  /**
+   * Parts of graph tests that never fetch remote content.
+   */
+  private static class OfflinePart extends Part {
+    private static final long serialVersionUID = 4204129209992403461L;
+    OfflinePart() {
+      super(null);
+    }
+
+    @Override
+    protected void refreshFromRemote() {
+    }
+  }
+
+  /**
+   * @return unresolved part with the given id and a mock url
+   */
+  public static Part createPart(String id) throws Exception {
+    return new OfflinePart().setUrl(new URL("http://mock?id:" + id)).setId(id);
+  }
+
   public PartTester(PartFactory partFactory, String url) throws Exception {
     this.url = new URL(url);
     part = partFactory.createPart(this.url);
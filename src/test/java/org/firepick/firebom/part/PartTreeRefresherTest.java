@@ -0,0 +1,78 @@
+package org.firepick.firebom.part;
+/*
+   PartTreeRefresherTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartTreeRefresherTest {
+  private static class CountingPart extends Part {
+    private static final long serialVersionUID = -2540733782988373428L;
+    private final List<PartUsage> usages = new ArrayList<PartUsage>();
+    private final AtomicInteger refreshCount = new AtomicInteger();
+    private CyclicBarrier barrier;
+
+    CountingPart(String id) throws Exception {
+      super(null);
+      setUrl(new URL("http://mock?id:" + id));
+      setMinRefeshInterval(0);
+    }
+
+    CountingPart uses(Part part) {
+      usages.add(new PartUsage(part, 1));
+      return this;
+    }
+
+    @Override
+    protected void refreshFromRemote() throws Exception {
+      refreshCount.incrementAndGet();
+      if (barrier != null) {
+        barrier.await(5, TimeUnit.SECONDS); // both siblings refresh at once
+        barrier = null;
+      }
+      setRequiredParts(usages);
+    }
+  }
+
+  @Test
+  public void testSharedSubtree() throws Exception {
+    CountingPart screw = new CountingPart("screw");
+    CountingPart left = new CountingPart("left").uses(screw);
+    CountingPart right = new CountingPart("right").uses(screw);
+    CountingPart assembly = new CountingPart("assembly").uses(left).uses(right);
+    CyclicBarrier barrier = new CyclicBarrier(2);
+    left.barrier = barrier;
+    right.barrier = barrier;
+
+    new PartTreeRefresher(2).refreshAll(assembly);
+    assertEquals(1, screw.refreshCount.get());
+    // the sibling that claimed the screw refreshes again after it
+    assertEquals(3, left.refreshCount.get() + right.refreshCount.get());
+    assertEquals(2, assembly.refreshCount.get());
+    assertTrue(assembly.isResolved());
+    assertTrue(screw.isResolved());
+  }
+}
@@ -21,9 +21,12 @@ import org.firepick.firebom.part.PartFactory;
 import org.firepick.firebom.part.PartUsage;
 import org.junit.Test;
 
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class PartUsageTest {
     @Test
@@ -42,6 +45,53 @@ public class PartUsageTest {
         testPartOrder(part1, part2);
     }
 
+    @Test
+    public void testCostRollup() throws Exception {
+        Part screw = new Part(null).setUrl(new URL("http://mock?id:screw")).setPackageCost(0.5).setPackageUnits(10d);
+        Part bracket = new Part(null).setUrl(new URL("http://mock?id:bracket"));
+        Part plate = new Part(null).setUrl(new URL("http://mock?id:plate")).setPackageCost(3d);
+        Part assembly = new Part(null).setUrl(new URL("http://mock?id:assembly"));
+        bracket.setRequiredParts(Arrays.asList(new PartUsage(screw, 4)));
+        assembly.setRequiredParts(Arrays.asList(new PartUsage(bracket, 2), new PartUsage(plate, 1), new PartUsage(screw, 2)));
+        assertEquals(3.5, assembly.getPackageCost(), 0.001);
+        assertEquals(0.2, bracket.getPackageCost(), 0.001);
+
+        screw.setPackageCost(1d);
+        assertEquals(0.4, bracket.getPackageCost(), 0.001);
+        assertEquals(4.0, assembly.getPackageCost(), 0.001);
+
+        plate.setPackageCost(4d);
+        assertEquals(5.0, assembly.getPackageCost(), 0.001);
+
+        bracket.setRequiredParts(Arrays.<PartUsage>asList());
+        screw.setPackageCost(2d);
+        assertEquals(0, bracket.getPackageCost(), 0);
+        assertEquals(4.4, assembly.getPackageCost(), 0.001);
+    }
+
+    @Test
+    public void testReplacedParentIsReleased() throws Exception {
+        Part screw = new Part(null).setUrl(new URL("http://mock?id:screw")).setPackageCost(0.5);
+        Part assembly = new Part(null).setUrl(new URL("http://mock?id:assembly"));
+        assembly.setRequiredParts(Arrays.asList(new PartUsage(screw, 2)));
+        assertEquals(1.0, assembly.getPackageCost(), 0.001);
+        WeakReference<Part> oldAssembly = new WeakReference<Part>(assembly);
+
+        // the evicted assembly is refetched and is no longer referenced by its parts
+        assembly.getPartFactory().getGraphOrder().remove(assembly);
+        assembly = new Part(null).setUrl(new URL("http://mock?id:assembly"));
+        assembly.setRequiredParts(Arrays.asList(new PartUsage(screw, 4)));
+        assertEquals(2.0, assembly.getPackageCost(), 0.001);
+        for (int i = 0; i < 100 && oldAssembly.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(oldAssembly.get());
+
+        screw.setPackageCost(1d);
+        assertEquals(4.0, assembly.getPackageCost(), 0.001);
+    }
+
     private void testPartOrder(Part part1, Part part2) {
         PartUsage partUsage1 = new PartUsage().setPart(part1);
         PartUsage partUsage2 = new PartUsage().setPart(part2);
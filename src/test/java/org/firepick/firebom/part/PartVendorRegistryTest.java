@@ -0,0 +1,64 @@
+package org.firepick.firebom.part;
+/*
+   PartVendorRegistryTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PartVendorRegistryTest {
+  @Test
+  public void testHostDispatch() throws Exception {
+    PartVendorRegistry registry = new PartVendorRegistry();
+    PartVendor shapeways = registry.getVendor("www.shapeways.com");
+    assertSame(shapeways, registry.getVendor("shpws.me"));
+    assertSame(shapeways, registry.getVendor("WWW.Shapeways.COM"));
+    assertEquals("[www.shapeways.com, shapeways.com, shpws.me]", shapeways.getHosts().toString());
+    assertEquals(1, CachedUrlResolver.getHostScheduler("www.mcmaster.com").getMaxConcurrency());
+
+    PartVendor unknown = registry.getVendor("www.example.com");
+    assertSame(unknown, registry.getVendor(null));
+    Part part = unknown.createPart(null, new URL("http://www.example.com/part"), null);
+    assertTrue(part instanceof HtmlPart);
+  }
+
+  @Test
+  public void testPlugin() throws Exception {
+    final SimplePartVendor plugin = new SimplePartVendor(HtmlPart.class, "www.sparkfun.com")
+        .setPolicy(new VendorPolicy().setStreamingScrape(false).setMinRefreshInterval(60000));
+    PartVendorRegistry registry = new PartVendorRegistry().register(new PartVendorProvider() {
+      @Override
+      public List<PartVendor> getVendors() {
+        return Collections.<PartVendor>singletonList(plugin);
+      }
+    });
+    assertSame(plugin, registry.getVendor("www.sparkfun.com"));
+    assertFalse(plugin == registry.getVendor("sparkfun.com"));
+
+    Part part = plugin.createPart(null, new URL("https://www.sparkfun.com/products/11040"), null);
+    plugin.getPolicy().applyTo(part);
+    assertFalse(part.isStreamingScrape());
+    assertEquals(60000, part.getMinRefeshInterval());
+  }
+}
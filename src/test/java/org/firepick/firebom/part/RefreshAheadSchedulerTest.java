@@ -0,0 +1,112 @@
+package org.firepick.firebom.part;
+/*
+   RefreshAheadSchedulerTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshAheadSchedulerTest {
+  private static class TimedPart extends Part {
+    private static final long serialVersionUID = 4692532273412956605L;
+    private final long refreshInterval;
+    private final long refreshLatency;
+
+    TimedPart(long minRefreshInterval, long refreshInterval, long refreshLatency) {
+      super(null);
+      setMinRefeshInterval(minRefreshInterval);
+      this.refreshInterval = refreshInterval;
+      this.refreshLatency = refreshLatency;
+    }
+
+    @Override
+    public long getRefreshInterval() {
+      return refreshInterval;
+    }
+
+    @Override
+    public long getRefreshLatency() {
+      return refreshLatency;
+    }
+  }
+
+  @Test
+  public void testLead() {
+    RefreshAheadScheduler scheduler = new RefreshAheadScheduler(null).setLeadFraction(0.1);
+    assertEquals(100, scheduler.getLead(new TimedPart(500, 1000, 0)));
+    assertEquals(50, scheduler.getLead(new TimedPart(950, 1000, 0)));
+    assertEquals(0, scheduler.getLead(new TimedPart(1000, 1000, 0)));
+    assertEquals(30, scheduler.getLead(new TimedPart(1000, 1000, 30))); // hottest parts lead by their latency
+    assertEquals(100, scheduler.getLead(new TimedPart(1000, 1000, 5000)));
+  }
+
+  @Test
+  public void testRefreshAhead() throws Exception {
+    PartFactory.getInstance(); // parts report refreshes to the factory
+    final AtomicInteger refreshCount = new AtomicInteger();
+    final AtomicLong refreshMillis = new AtomicLong();
+    PartRefreshExecutor executor = new PartRefreshExecutor(1).start();
+    RefreshAheadScheduler scheduler = new RefreshAheadScheduler(executor).setLeadFraction(0.5);
+    Part part = new Part(null) {
+      @Override
+      protected void refreshFromRemote() throws Exception {
+        refreshCount.incrementAndGet();
+        refreshMillis.set(System.currentTimeMillis());
+      }
+    };
+    part.setUrl(new URL("http://mock?id:refreshAhead"));
+    part.setMinRefeshInterval(500);
+    assertFalse(scheduler.isHot(part));
+    part.refresh();
+    part.sample();
+    Thread.sleep(1000);
+    part.sample();
+    assertTrue(scheduler.isHot(part));
+    long lead = scheduler.getLead(part); // ~800ms refresh interval - 500ms minimum
+    assertTrue(lead > 200 && lead <= 400);
+    part.refresh();
+    assertEquals(2, refreshCount.get());
+
+    long dueMillis = part.getRefreshDueMillis();
+    scheduler.schedule(part);
+    scheduler.schedule(part);
+    assertEquals(1, scheduler.getScheduledParts());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (scheduler.getRefreshesAhead() == 0) {
+      assertTrue("no refresh ahead", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertTrue(executor.drain(5000));
+    assertEquals(1, scheduler.getRefreshesAhead());
+    assertEquals(3, refreshCount.get());
+    assertTrue(refreshMillis.get() < dueMillis);
+
+    scheduler.setHotFactor(0.01); // cool down
+    assertFalse(scheduler.isHot(part));
+    scheduler.schedule(part);
+    assertEquals(0, scheduler.getScheduledParts());
+
+    scheduler.shutdown();
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,64 @@
+package org.firepick.firebom.part;
+/*
+   ResolverMetricsTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ResolverMetricsTest {
+    @Test
+    public void testHitRatio() {
+        ResolverMetrics metrics = new ResolverMetrics();
+        assertEquals(0, metrics.getHitRatio(), 0);
+        metrics.recordCacheHit();
+        metrics.recordCacheHit();
+        metrics.recordNegativeHit();
+        metrics.recordCacheMiss();
+        assertEquals(0.75, metrics.getHitRatio(), 0.001);
+        metrics.reset();
+        assertEquals(0, metrics.getCacheHits());
+    }
+
+    @Test
+    public void testHostMetrics() {
+        ResolverMetrics metrics = new ResolverMetrics();
+        for (int i = 0; i < 98; i++) {
+            metrics.recordFetchStarted();
+            metrics.recordFetchCompleted("www.sparkfun.com", 40, false, false);
+        }
+        metrics.recordFetchStarted();
+        assertEquals(1, metrics.getInFlightFetches());
+        metrics.recordFetchCompleted("www.sparkfun.com", 3000, true, false);
+        metrics.recordFetchStarted();
+        metrics.recordFetchCompleted("www.sparkfun.com", 3000, false, true);
+        metrics.recordBytes("www.sparkfun.com", 1000);
+        metrics.recordBytes("www.adafruit.com", 24);
+
+        assertEquals(0, metrics.getInFlightFetches());
+        assertEquals(100, metrics.getNetworkRequests());
+        assertEquals(1, metrics.getNetworkFailures());
+        assertEquals(1, metrics.getUnchangedResponses());
+        assertEquals(1024, metrics.getBytesTransferred());
+        ResolverMetrics.HostMetrics sparkfun = metrics.getHostMetrics("www.sparkfun.com");
+        assertEquals(100, sparkfun.getRequests());
+        assertEquals(1000, sparkfun.getBytes());
+        assertEquals(50, sparkfun.getLatencyPercentile(50));
+        assertEquals(5000, sparkfun.getLatencyPercentile(99));
+        assertEquals(2, metrics.getHostStatistics().length);
+    }
+}
@@ -0,0 +1,137 @@
+package org.firepick.firebom.part;
+/*
+   UrlContentStoreTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UrlContentStoreTest {
+    private static File createStoreDirectory() throws IOException {
+        File dir = File.createTempFile("firebom", "pagestore");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        File dir = createStoreDirectory();
+        UrlContentStore store = new UrlContentStore(dir, 4096);
+        for (int i = 0; i < 20; i++) {
+            store.put("http://mock?id:" + i, new UrlContent("content" + i, "\"" + i + "\"", null));
+        }
+        store.put("http://mock?id:3", new UrlContent("content3b", null, null));
+        assertEquals("content3b", store.get("http://mock?id:3").getContent());
+        assertNull(store.get("http://mock?id:99"));
+        store.close();
+
+        UrlContentStore store2 = new UrlContentStore(dir, 4096);
+        assertEquals(20, store2.size());
+        assertEquals("content3b", store2.get("http://mock?id:3").getContent());
+        assertEquals("content7", store2.get("http://mock?id:7").getContent());
+        assertEquals("\"7\"", store2.get("http://mock?id:7").getETag());
+        store2.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = createStoreDirectory();
+        UrlContentStore store = new UrlContentStore(dir, 4096);
+        for (int i = 0; i < 50; i++) {
+            store.put("http://mock?id:a", new UrlContent("version" + i, null, null));
+        }
+        int segmentCount = dir.listFiles().length;
+        store.compact();
+        assert (dir.listFiles().length < segmentCount);
+        assertEquals("version49", store.get("http://mock?id:a").getContent());
+        store.close();
+
+        UrlContentStore store2 = new UrlContentStore(dir, 4096);
+        assertEquals(1, store2.size());
+        assertEquals("version49", store2.get("http://mock?id:a").getContent());
+        store2.close();
+    }
+
+    @Test
+    public void testExpiredSegmentsAreCompacted() throws Exception {
+        File dir = createStoreDirectory();
+        UrlContentStore store = new UrlContentStore(dir, 4096);
+        long expiredMillis = System.currentTimeMillis() - 2 * UrlContentStore.DEFAULT_MAX_AGE_MILLIS;
+        for (int i = 0; dir.listFiles().length < 3; i++) {
+            store.put("http://mock?id:old" + i, new UrlContent(new UrlContent("old" + i, null, null), null, null, expiredMillis));
+        }
+        store.put("http://mock?id:new", new UrlContent("new", null, null));
+        File firstSegment = new File(dir, "segment-00000001.dat");
+        assertTrue(firstSegment.exists());
+
+        // records that were never superseded expire and their segments are reclaimed
+        store.compact();
+        assertFalse(firstSegment.exists());
+        assertEquals(1, store.size());
+        assertEquals("new", store.get("http://mock?id:new").getContent());
+        store.close();
+
+        UrlContentStore store2 = new UrlContentStore(dir, 4096);
+        assertEquals(1, store2.size());
+        assertNull(store2.get("http://mock?id:old0"));
+        store2.close();
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        File dir = createStoreDirectory();
+        UrlContentStore store = new UrlContentStore(dir, 4096);
+        store.put("http://mock?id:a", new UrlContent("a", null, null));
+        store.put("http://mock?id:b", new UrlContent("b", null, null));
+        store.close();
+
+        // corrupt the last byte of the second record
+        File segment = dir.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        long position = raf.length() - 1;
+        while (position > 0) {
+            raf.seek(position);
+            if (raf.read() != 0) {
+                break;
+            }
+            position--;
+        }
+        raf.seek(position);
+        raf.write(0x55);
+        raf.close();
+
+        UrlContentStore store2 = new UrlContentStore(dir, 4096);
+        assertEquals("a", store2.get("http://mock?id:a").getContent());
+        assertNull(store2.get("http://mock?id:b"));
+        store2.put("http://mock?id:c", new UrlContent("c", null, null));
+        store2.close();
+
+        UrlContentStore store3 = new UrlContentStore(dir, 4096);
+        assertEquals(2, store3.size());
+        assertEquals("c", store3.get("http://mock?id:c").getContent());
+        store3.close();
+    }
+}
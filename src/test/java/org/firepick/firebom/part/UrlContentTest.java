@@ -0,0 +1,57 @@
+package org.firepick.firebom.part;
+/*
+   UrlContentTest.java
+   Copyright (C) 2013 Karl Lew <karl@firepick.org>. All rights reserved.
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+     http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.io.ObjectStreamClass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UrlContentTest {
+    @Test
+    public void testCompressedContent() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<tr><td class=\"price\">$").append(i).append(".95</td><td>M3 \u00d7 10mm</td></tr>");
+        }
+        String content = sb.toString();
+        UrlContent urlContent = new UrlContent(content, "\"abc\"", "Thu, 01 Aug 2013 00:00:00 GMT");
+        assertEquals(content, urlContent.getContent());
+        assertEquals(content.length(), urlContent.getContentLength());
+        assertTrue(urlContent.getStoredLength() * 5 < content.length());
+    }
+
+    @Test
+    public void testRevalidate() {
+        UrlContent urlContent = new UrlContent("hello", "\"abc\"", "Thu, 01 Aug 2013 00:00:00 GMT");
+        UrlContent revalidated = urlContent.revalidate(null, "Fri, 02 Aug 2013 00:00:00 GMT");
+        assertEquals("hello", revalidated.getContent());
+        assertEquals("\"abc\"", revalidated.getETag());
+        assertEquals("Fri, 02 Aug 2013 00:00:00 GMT", revalidated.getLastModified());
+        assertEquals(urlContent.getContentHash(), revalidated.getContentHash());
+        assertEquals(urlContent.getContentHash(), new UrlContent("hello", null, null).getContentHash());
+    }
+
+    @Test
+    public void testStableSerialVersion() {
+        // records written by earlier releases of the page store must remain readable
+        assertEquals(2038250502285016345L, ObjectStreamClass.lookup(UrlContent.class).getSerialVersionUID());
+        assertEquals(-1057849666731319363L, ObjectStreamClass.lookup(UrlFailure.class).getSerialVersionUID());
+    }
+}